@@ -2,6 +2,13 @@ package nz.ac.auckland.apiproxy.chat.openai;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
@@ -9,10 +16,13 @@ import javax.json.JsonObjectBuilder;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
 import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.ProxyClient;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Priority;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 
 public class ChatCompletionRequest {
 
@@ -32,14 +42,48 @@ public class ChatCompletionRequest {
     }
   }
 
+  /** Controls where volatile, per-turn context is placed in the serialized messages. */
+  public enum Layout {
+    /** Volatile context goes just before the newest message, interleaved with the dialogue. */
+    INTERLEAVED,
+    /**
+     * The conversation goes first and volatile context last, so the persona prompt and earlier
+     * turns form a byte-identical prefix that the provider can serve from its prompt cache.
+     */
+    STABLE_PREFIX
+  }
+
   private static final int NOT_SET = -1;
+  private static final int DEFAULT_ROUTED_MAX_TOKENS = 1024; // cap when routing without max_tokens
+
+  // Aborts exchanges still running at their deadline
+  private static final ScheduledExecutorService DEADLINES =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "proxy-deadline");
+            thread.setDaemon(true);
+            return thread;
+          });
 
   private ApiProxyConfig config;
 
-  // OpenAI required parameters
-  private ArrayList<ChatMessage> messages = new ArrayList<>();
+  // OpenAI required parameters. The conversation is persistent, so it is swapped, never modified
+  private final AtomicReference<Conversation> conversation =
+      new AtomicReference<>(Conversation.EMPTY);
   private Model model = null;
 
+  // Context that is replaced every turn rather than kept in the conversation
+  private volatile Conversation volatileMessages = Conversation.EMPTY;
+  private Layout layout = Layout.STABLE_PREFIX;
+  private PromptMinifier minifier = null;
+  private volatile PromptMinifier.Report minificationReport = null;
+  private ModelRouter router = null;
+  private int expectedReplyTokens = NOT_SET;
+  private volatile HttpPost inFlight = null;
+  private volatile boolean aborted = false;
+  private long deadlineMillis = NOT_SET;
+  private Supplier<Priority> priority = () -> Priority.FOREGROUND;
+
   // Optional parameters
   private int maxTokens = NOT_SET;
   private double temperature = NOT_SET;
@@ -50,15 +94,226 @@ public class ChatCompletionRequest {
     this.config = config;
   }
 
+  /**
+   * Creates an independent copy of this request with the same conversation and settings, e.g. to
+   * send a speculative turn without touching the original conversation. The copy shares the
+   * conversation rather than duplicating it, so this takes constant time.
+   *
+   * @return the copy
+   */
+  public ChatCompletionRequest copy() {
+    return fork(conversation.get());
+  }
+
+  /**
+   * Creates a copy of this request with the same settings and the given conversation, e.g. one
+   * continuing a snapshot of this request's conversation by a turn that has not been committed.
+   *
+   * @param conversation the conversation of the copy
+   * @return the copy
+   */
+  public ChatCompletionRequest fork(Conversation conversation) {
+    ChatCompletionRequest copy = new ChatCompletionRequest(config);
+    copy.conversation.set(conversation);
+    copy.volatileMessages = volatileMessages;
+    copy.model = model;
+    copy.layout = layout;
+    copy.minifier = minifier;
+    copy.router = router;
+    copy.expectedReplyTokens = expectedReplyTokens;
+    copy.priority = priority;
+    copy.maxTokens = maxTokens;
+    copy.temperature = temperature;
+    copy.topP = topP;
+    copy.n = n;
+    return copy;
+  }
+
   public ChatCompletionRequest addMessage(String role, String content) {
     return addMessage(new ChatMessage(role, content));
   }
 
   public ChatCompletionRequest addMessage(ChatMessage message) {
-    messages.add(message);
+    conversation.updateAndGet(current -> current.append(message));
+    return this;
+  }
+
+  /**
+   * Returns a snapshot of the conversation, without any volatile context. Later messages do not
+   * change a snapshot, so it can be kept, serialized or forked from at no cost.
+   *
+   * @return the conversation as it is now
+   */
+  public Conversation getConversation() {
+    return conversation.get();
+  }
+
+  /**
+   * Replaces the conversation if it is still the expected snapshot. This commits a turn atomically:
+   * the turn is built on a snapshot and only becomes part of the conversation once it succeeded.
+   *
+   * @param expected the snapshot the turn was built on
+   * @param updated the conversation including the turn
+   * @return true if the conversation was replaced, false if it had changed in the meantime
+   */
+  public boolean commit(Conversation expected, Conversation updated) {
+    if (!updated.extendsFrom(expected)) {
+      throw new IllegalArgumentException("the updated conversation must continue the expected one");
+    }
+    return conversation.compareAndSet(expected, updated);
+  }
+
+  /**
+   * Replaces the volatile context sent with the next request. Unlike {@link #addMessage}, the
+   * context is not kept in the conversation, so stale context never accumulates between turns.
+   *
+   * @param role the role of the context message, usually "system"
+   * @param content the context for this turn
+   * @return this request
+   */
+  public ChatCompletionRequest setVolatileContext(String role, String content) {
+    volatileMessages = Conversation.EMPTY.append(role, content);
+    return this;
+  }
+
+  public ChatCompletionRequest clearVolatileContext() {
+    volatileMessages = Conversation.EMPTY;
+    return this;
+  }
+
+  public ChatCompletionRequest setLayout(Layout layout) {
+    this.layout = layout;
+    return this;
+  }
+
+  /**
+   * Returns the conversation as added, without any volatile context.
+   *
+   * @return an unmodifiable list of the messages
+   */
+  public List<ChatMessage> getMessages() {
+    return conversation.get().toList();
+  }
+
+  /**
+   * Returns the messages in the order they are sent, with volatile context placed according to the
+   * layout policy.
+   *
+   * @return the ordered messages
+   */
+  public List<ChatMessage> getLayoutMessages() {
+    List<ChatMessage> messages = getMessages();
+    List<ChatMessage> volatileMessages = this.volatileMessages.toList();
+    List<ChatMessage> ordered = new ArrayList<>(messages.size() + volatileMessages.size());
+    if (layout == Layout.INTERLEAVED && !messages.isEmpty()) {
+      ordered.addAll(messages.subList(0, messages.size() - 1));
+      ordered.addAll(volatileMessages);
+      ordered.add(messages.get(messages.size() - 1));
+    } else {
+      ordered.addAll(messages);
+      ordered.addAll(volatileMessages);
+    }
+    return ordered;
+  }
+
+  /**
+   * Sets a stage that minifies system messages right before they are sent. The conversation
+   * itself is left as it was added.
+   *
+   * @param minifier the minifier to use, or null to send messages unchanged
+   * @return this request
+   */
+  public ChatCompletionRequest setMinifier(PromptMinifier minifier) {
+    this.minifier = minifier;
+    return this;
+  }
+
+  /**
+   * Returns the token savings of the most recent time this request was sent. Copies start without
+   * a report of their own.
+   *
+   * @return the report, or null if no minifier is set or the request has not been sent
+   */
+  public PromptMinifier.Report getLastMinificationReport() {
+    return minificationReport;
+  }
+
+  /**
+   * Lets a router choose the model and max_tokens of each request from live latency. The model and
+   * max_tokens set on this request then act as the preferred model and the upper limit.
+   *
+   * @param router the router to use, or null to always send the configured model
+   * @return this request
+   */
+  public ChatCompletionRequest setRouter(ModelRouter router) {
+    this.router = router;
     return this;
   }
 
+  public ChatCompletionRequest setExpectedReplyTokens(int expectedReplyTokens) {
+    if (expectedReplyTokens < 1) {
+      throw new IllegalArgumentException(
+          "expected reply tokens must be at least 1, but was given " + expectedReplyTokens);
+    }
+    this.expectedReplyTokens = expectedReplyTokens;
+    return this;
+  }
+
+  /**
+   * Sets the time by which the reply must have arrived. A request executed after its deadline fails
+   * at once, and one still running at its deadline has its HTTP exchange aborted, which releases
+   * the connection immediately. Copies and forks do not inherit the deadline.
+   *
+   * @param deadlineMillis the deadline, in milliseconds since the epoch
+   * @return this request
+   */
+  public ChatCompletionRequest setDeadline(long deadlineMillis) {
+    if (deadlineMillis < 0) {
+      throw new IllegalArgumentException(
+          "deadline must not be negative, but was given " + deadlineMillis);
+    }
+    this.deadlineMillis = deadlineMillis;
+    return this;
+  }
+
+  /**
+   * Sets the priority class this request queues for the proxy with. Requests are foreground turns
+   * unless set otherwise.
+   *
+   * @param priority the priority class
+   * @return this request
+   */
+  public ChatCompletionRequest setPriority(Priority priority) {
+    return setPriority(() -> priority);
+  }
+
+  /**
+   * Sets where the priority class this request queues for the proxy with is read from. It is read
+   * again whenever a slot frees up, so the priority may change while the request waits.
+   *
+   * @param priority supplies the priority class
+   * @return this request
+   */
+  public ChatCompletionRequest setPriority(Supplier<Priority> priority) {
+    this.priority = priority;
+    return this;
+  }
+
+  /**
+   * Aborts the HTTP exchange of a request currently executing on another thread. The executing
+   * thread then fails with an {@link ApiProxyException}. Once aborted, a request fails whenever it
+   * is executed, so a turn cancelled just before it was sent never reaches the proxy. This is the
+   * only way to stop an execution: cancelling a future that runs it does not interrupt the thread.
+   */
+  public void abort() {
+    aborted = true;
+    HttpPost post = inFlight;
+    if (post != null) {
+      post.abort();
+    }
+    ProxyScheduler.getInstance().wakeUp(); // in case it is still queued
+  }
+
   public ChatCompletionRequest setModel(Model model) {
     this.model = model;
     return this;
@@ -99,11 +354,74 @@ public class ChatCompletionRequest {
     return this;
   }
 
-  @SuppressWarnings("resource")
+  /**
+   * Runs the request and response codecs on a synthetic exchange, so class loading and JIT warm-up
+   * happen before the first real turn rather than inside it.
+   *
+   * @throws ApiProxyException if the synthetic response cannot be parsed
+   */
+  public static void warmUpCodecs() throws ApiProxyException {
+    String body =
+        Json.createObjectBuilder()
+            .add(
+                "messages",
+                Json.createArrayBuilder()
+                    .add(Json.createObjectBuilder().add("role", "system").add("content", "warm")))
+            .add("max_tokens", 1)
+            .add("temperature", 0.2)
+            .build()
+            .toString();
+    String response =
+        "{\"success\":true,\"code\":0,\"message\":\"\",\"chat_completion\":{"
+            + "\"model\":\"warm\",\"created\":0,\"usage\":{\"prompt_tokens\":"
+            + body.length()
+            + ",\"completion_tokens\":1,\"total_tokens\":1,"
+            + "\"prompt_tokens_details\":{\"cached_tokens\":0}},\"choices\":[{\"index\":0,"
+            + "\"finish_reason\":\"stop\",\"message\":"
+            + "{\"role\":\"assistant\",\"content\":\"ok\"}}]}}";
+    try {
+      ResponseChatCompletionViaProxy parsed =
+          ProxyClient.getMapper().readValue(response, ResponseChatCompletionViaProxy.class);
+      new ChatCompletionResult(parsed.chat_completion);
+    } catch (Exception e) {
+      throw new ApiProxyException("Unable to warm up the chat codecs", e);
+    }
+  }
+
   public ChatCompletionResult execute() throws ApiProxyException {
+    Model requestModel = model;
+    int requestMaxTokens = maxTokens;
+    if (router != null && model != null) {
+      int cap = maxTokens == NOT_SET ? DEFAULT_ROUTED_MAX_TOKENS : maxTokens;
+      int expected = expectedReplyTokens == NOT_SET ? cap / 2 : expectedReplyTokens;
+      ModelRouter.Route route = router.route(model, cap, expected);
+      requestModel = route.getModel();
+      requestMaxTokens = route.getMaxTokens();
+    }
+
+    if (deadlineMillis != NOT_SET && deadlineMillis <= System.currentTimeMillis()) {
+      throw new ApiProxyException("Problem calling API: the deadline passed before it was sent");
+    }
+    ProxyScheduler.Permit permit =
+        ProxyScheduler.getInstance()
+            .acquire(priority, Math.max(deadlineMillis, 0), () -> aborted);
+    long remainingMillis = NOT_SET;
+    if (deadlineMillis != NOT_SET) {
+      remainingMillis = Math.max(deadlineMillis - System.currentTimeMillis(), 1);
+    }
+
+    long start = System.nanoTime();
+    ScheduledFuture<?> abortAtDeadline = null;
     try {
+      List<ChatMessage> outgoing = getLayoutMessages();
+      if (minifier != null) {
+        PromptMinifier.Report report = minifier.minify(outgoing);
+        minificationReport = report;
+        outgoing = report.getMessages();
+      }
+
       JsonArrayBuilder jsonMessages = Json.createArrayBuilder();
-      for (ChatMessage message : messages) {
+      for (ChatMessage message : outgoing) {
         jsonMessages.add(
             Json.createObjectBuilder() //
                 .add("role", message.getRole()) //
@@ -116,8 +434,8 @@ public class ChatCompletionRequest {
 
       jsonOverallBuilder.add("access_token", config.getApiKey()).add("email", config.getEmail());
 
-      if (maxTokens != NOT_SET) {
-        jsonOverallBuilder.add("max_tokens", maxTokens);
+      if (requestMaxTokens != NOT_SET) {
+        jsonOverallBuilder.add("max_tokens", requestMaxTokens);
       }
 
       if (temperature > NOT_SET) {
@@ -132,11 +450,11 @@ public class ChatCompletionRequest {
         jsonOverallBuilder.add("n", n);
       }
 
-      if (model != null) {
-        jsonOverallBuilder.add("model", model.getModelName());
+      if (requestModel != null) {
+        jsonOverallBuilder.add("model", requestModel.getModelName());
       }
 
-      CloseableHttpClient client = HttpClients.createDefault();
+      CloseableHttpClient client = ProxyClient.getClient();
 
       ResponseChatCompletionViaProxy responseChat = null;
       JsonObject value = jsonOverallBuilder.build();
@@ -145,7 +463,25 @@ public class ChatCompletionRequest {
       httpPost.setHeader("Content-Type", "application/json");
       httpPost.setHeader("Accept", "application/json");
       httpPost.setEntity(new StringEntity(value.toString()));
-      ObjectMapper mapperApiMapper = new ObjectMapper();
+      ObjectMapper mapperApiMapper = ProxyClient.getMapper();
+      if (remainingMillis != NOT_SET) {
+        // no single wait may outlast the deadline, and the abort catches a slow trickle of bytes
+        int timeout = (int) Math.min(remainingMillis, Integer.MAX_VALUE);
+        RequestConfig defaults = ProxyClient.getRequestConfig();
+        httpPost.setConfig(
+            RequestConfig.copy(defaults)
+                .setConnectTimeout(Math.min(timeout, defaults.getConnectTimeout()))
+                .setSocketTimeout(Math.min(timeout, defaults.getSocketTimeout()))
+                .build());
+        abortAtDeadline =
+            DEADLINES.schedule(httpPost::abort, remainingMillis, TimeUnit.MILLISECONDS);
+      }
+      // abort() sets the flag before reading inFlight, and this publishes inFlight before reading
+      // the flag; both are volatile, so an abort racing this point is always seen by one side
+      inFlight = httpPost;
+      if (aborted) {
+        httpPost.abort(); // aborted before the exchange started
+      }
 
       responseChat =
           (ResponseChatCompletionViaProxy)
@@ -159,10 +495,20 @@ public class ChatCompletionRequest {
       if (!responseChat.success && responseChat.code != 0) {
         throw new ApiProxyException("Problem calling API: " + responseChat.message);
       }
+      if (router != null && requestModel != null) {
+        // only answers are measured, as failed and aborted calls end at no particular time
+        router.record(requestModel, (System.nanoTime() - start) / 1_000_000);
+      }
       return new ChatCompletionResult(responseChat.chat_completion);
 
     } catch (Exception e) {
       throw new ApiProxyException("Problem calling API: " + e.getMessage());
+    } finally {
+      permit.close();
+      inFlight = null;
+      if (abortAtDeadline != null) {
+        abortAtDeadline.cancel(false);
+      }
     }
   }
 }
@@ -12,6 +12,7 @@ public class ChatCompletionResult {
   private int usagePromptToken;
   private int usageCompletionTokens;
   private int usageTotalTokens;
+  private int usageCachedTokens;
 
   private List<Choice> choices = new ArrayList<>();
 
@@ -28,6 +29,7 @@ public class ChatCompletionResult {
     usagePromptToken = getUsage("prompt_tokens", chatCompletion);
     usageCompletionTokens = getUsage("completion_tokens", chatCompletion);
     usageTotalTokens = getUsage("total_tokens", chatCompletion);
+    usageCachedTokens = getCachedTokens(chatCompletion);
 
     List<?> choicesJson = (List<?>) chatCompletion.get("choices");
     for (int c = 0; c < choicesJson.size(); c++) {
@@ -56,6 +58,14 @@ public class ChatCompletionResult {
     return usageTotalTokens;
   }
 
+  /**
+   * Returns how many of the prompt tokens were served from the provider's prompt cache. This is 0
+   * when the provider does not report it.
+   */
+  public int getUsageCachedTokens() {
+    return usageCachedTokens;
+  }
+
   public String getModel() {
     return model;
   }
@@ -69,6 +79,16 @@ public class ChatCompletionResult {
     return Integer.parseInt(usage.get(key).toString());
   }
 
+  private int getCachedTokens(Map<String, Object> chatCompletion) {
+    Map<?, ?> usage = (Map<?, ?>) chatCompletion.get("usage");
+    Object details = usage.get("prompt_tokens_details");
+    if (!(details instanceof Map)) {
+      return 0;
+    }
+    Object cached = ((Map<?, ?>) details).get("cached_tokens");
+    return cached == null ? 0 : Integer.parseInt(cached.toString());
+  }
+
   public Choice getChoice(int index) {
     if (index < 0 || index >= choices.size()) {
       throw new IllegalArgumentException(
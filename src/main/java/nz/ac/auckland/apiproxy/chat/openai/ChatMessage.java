@@ -1,9 +1,10 @@
 package nz.ac.auckland.apiproxy.chat.openai;
 
+/** A message of a chat. Messages are immutable, so conversations can share them freely. */
 public class ChatMessage {
 
-  private String role;
-  private String content;
+  private final String role;
+  private final String content;
 
   public ChatMessage(String role, String content) {
     this.role = role;
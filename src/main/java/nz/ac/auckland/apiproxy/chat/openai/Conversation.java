@@ -0,0 +1,126 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable, persistent list of chat messages. Appending returns a new conversation that shares
+ * every earlier message with the one it was appended to, so a snapshot or a fork is just a
+ * reference and costs O(1) whatever the length of the dialogue. As nothing is ever modified, a
+ * conversation can be read from any thread without locking.
+ */
+public final class Conversation implements Iterable<ChatMessage> {
+
+  public static final Conversation EMPTY = new Conversation(null, null, 0);
+
+  private final Conversation previous;
+  private final ChatMessage last;
+  private final int size;
+
+  private Conversation(Conversation previous, ChatMessage last, int size) {
+    this.previous = previous;
+    this.last = last;
+    this.size = size;
+  }
+
+  /**
+   * Returns a conversation with the given message after the messages of this one.
+   *
+   * @param message the message to append
+   * @return the longer conversation
+   */
+  public Conversation append(ChatMessage message) {
+    if (message == null) {
+      throw new IllegalArgumentException("message must not be null");
+    }
+    return new Conversation(this, message, size + 1);
+  }
+
+  /**
+   * Returns a conversation with the given role and content after the messages of this one.
+   *
+   * @param role the role of the message
+   * @param content the content of the message
+   * @return the longer conversation
+   */
+  public Conversation append(String role, String content) {
+    return append(new ChatMessage(role, content));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the newest message.
+   *
+   * @return the last message, or null if the conversation is empty
+   */
+  public ChatMessage getLast() {
+    return last;
+  }
+
+  /**
+   * Returns the conversation without its newest message.
+   *
+   * @return the shorter conversation, or this one if it is empty
+   */
+  public Conversation getPrevious() {
+    return previous == null ? this : previous;
+  }
+
+  /**
+   * Returns whether this conversation continues the given one, i.e. the given one is this
+   * conversation or an earlier snapshot of it.
+   *
+   * @param other the earlier conversation
+   * @return true if every message of the other conversation is shared with this one
+   */
+  public boolean extendsFrom(Conversation other) {
+    Conversation node = this;
+    while (node != null && node.size > other.size) {
+      node = node.previous;
+    }
+    return node == other; // every conversation grows from EMPTY, so shared nodes are identical
+  }
+
+  /**
+   * Returns the messages oldest first.
+   *
+   * @return an unmodifiable list of the messages
+   */
+  public List<ChatMessage> toList() {
+    ChatMessage[] ordered = new ChatMessage[size];
+    Conversation node = this;
+    for (int i = size - 1; i >= 0; i--) {
+      ordered[i] = node.last;
+      node = node.previous;
+    }
+    return Collections.unmodifiableList(Arrays.asList(ordered));
+  }
+
+  /**
+   * Returns a conversation holding the given messages, oldest first.
+   *
+   * @param messages the messages
+   * @return the conversation
+   */
+  public static Conversation of(Iterable<ChatMessage> messages) {
+    Conversation conversation = EMPTY;
+    for (ChatMessage message : messages) {
+      conversation = conversation.append(message);
+    }
+    return conversation;
+  }
+
+  @Override
+  public Iterator<ChatMessage> iterator() {
+    return toList().iterator();
+  }
+}
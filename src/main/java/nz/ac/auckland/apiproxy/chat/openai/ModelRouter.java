@@ -0,0 +1,208 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+
+/**
+ * ModelRouter picks the model and max_tokens for each request from live latency measurements. A
+ * request keeps its preferred model while that model's observed p95 latency fits the budget; when
+ * the proxy slows down the router falls back to whichever model is currently fastest and trims
+ * max_tokens, instead of letting a turn outlive the time the player has left.
+ *
+ * <p>The budget is the configured p95 target, further limited to a share of the remaining phase
+ * time when a supplier for it is set.
+ *
+ * <p>Samples expire after a while. A model the router stopped choosing because it was slow gets no
+ * new samples, so once its old ones have expired it is judged by its prior again and tried anew.
+ * Only successful calls are measured; a call that failed or was aborted says nothing about how
+ * long the model takes to answer.
+ */
+public class ModelRouter {
+
+  /** The model and token limit chosen for one request. */
+  public static class Route {
+    private final Model model;
+    private final int maxTokens;
+
+    private Route(Model model, int maxTokens) {
+      this.model = model;
+      this.maxTokens = maxTokens;
+    }
+
+    public Model getModel() {
+      return model;
+    }
+
+    public int getMaxTokens() {
+      return maxTokens;
+    }
+  }
+
+  private static final ModelRouter INSTANCE = new ModelRouter();
+
+  private static final long DEFAULT_SAMPLE_LIFETIME_MILLIS = 30_000;
+  private static final int WINDOW = 20;
+  private static final int MIN_SAMPLES = 3;
+  private static final int MIN_TOKENS = 64;
+  private static final int NO_LIMIT = Integer.MAX_VALUE;
+
+  public static ModelRouter getInstance() {
+    return INSTANCE;
+  }
+
+  // Recent latencies per model in a ring, newest at index next - 1, and when each was taken
+  private final Map<Model, long[]> samples = new EnumMap<>(Model.class);
+  private final Map<Model, long[]> sampleTimes = new EnumMap<>(Model.class);
+  private final Map<Model, Integer> sampleCounts = new EnumMap<>(Model.class);
+  private final Map<Model, Long> priors = new EnumMap<>(Model.class);
+  private final LongSupplier clock;
+  private final long sampleLifetimeMillis;
+
+  private long p95TargetMillis = 6000;
+  private double phaseShare = 0.25;
+  private IntSupplier remainingSeconds = () -> NO_LIMIT;
+
+  /** Creates a router whose samples expire after 30 seconds. The game uses the shared instance. */
+  public ModelRouter() {
+    this(System::currentTimeMillis, DEFAULT_SAMPLE_LIFETIME_MILLIS);
+  }
+
+  /**
+   * Creates a router.
+   *
+   * @param clock supplies the current time in milliseconds
+   * @param sampleLifetimeMillis how long a latency sample counts towards its model's estimate
+   */
+  public ModelRouter(LongSupplier clock, long sampleLifetimeMillis) {
+    if (sampleLifetimeMillis < 1) {
+      throw new IllegalArgumentException(
+          "sample lifetime must be at least 1ms, but was given " + sampleLifetimeMillis);
+    }
+    this.clock = clock;
+    this.sampleLifetimeMillis = sampleLifetimeMillis;
+    // Rough starting points until real measurements arrive
+    priors.put(Model.GPT_4_1_NANO, 1500L);
+    priors.put(Model.GPT_4o_MINI, 2500L);
+    priors.put(Model.GPT_4_1_MINI, 3000L);
+    for (Model model : Model.values()) {
+      samples.put(model, new long[WINDOW]);
+      sampleTimes.put(model, new long[WINDOW]);
+      sampleCounts.put(model, 0);
+    }
+  }
+
+  public synchronized ModelRouter setP95TargetMillis(long p95TargetMillis) {
+    if (p95TargetMillis < 1) {
+      throw new IllegalArgumentException(
+          "p95 target must be at least 1ms, but was given " + p95TargetMillis);
+    }
+    this.p95TargetMillis = p95TargetMillis;
+    return this;
+  }
+
+  /**
+   * Sets where the router reads the seconds left in the current phase, and the share of that time
+   * a single turn may use.
+   *
+   * @param remainingSeconds supplies the seconds left, or Integer.MAX_VALUE when untimed
+   * @param phaseShare the fraction of the remaining time one turn may take, between 0 and 1
+   * @return this router
+   */
+  public synchronized ModelRouter setRemainingTime(
+      IntSupplier remainingSeconds, double phaseShare) {
+    if (phaseShare <= 0 || phaseShare > 1) {
+      throw new IllegalArgumentException(
+          "phase share must be in (0, 1], but was given " + phaseShare);
+    }
+    this.remainingSeconds = remainingSeconds;
+    this.phaseShare = phaseShare;
+    return this;
+  }
+
+  /**
+   * Chooses the model and max_tokens for a request.
+   *
+   * @param preferred the model the caller would use given unlimited time
+   * @param maxTokensCap the largest max_tokens the caller allows
+   * @param expectedReplyTokens the expected length of the reply
+   * @return the route to use
+   */
+  public synchronized Route route(Model preferred, int maxTokensCap, int expectedReplyTokens) {
+    long budget = getBudgetMillis();
+
+    List<Model> candidates = new ArrayList<>(Arrays.asList(Model.values()));
+    candidates.remove(preferred);
+    candidates.sort(Comparator.comparingLong(this::estimateP95Millis));
+    candidates.add(0, preferred);
+
+    int maxTokens = Math.max(MIN_TOKENS, Math.min(maxTokensCap, expectedReplyTokens * 2));
+    for (Model candidate : candidates) {
+      if (estimateP95Millis(candidate) <= budget) {
+        return new Route(candidate, maxTokens);
+      }
+    }
+
+    // Nothing fits: take the fastest model and shorten the reply in proportion
+    Model fastest = Collections.min(candidates, Comparator.comparingLong(this::estimateP95Millis));
+    double ratio = (double) budget / estimateP95Millis(fastest);
+    int degradedTokens = Math.max(MIN_TOKENS, (int) (maxTokens * ratio));
+    return new Route(fastest, Math.min(maxTokens, degradedTokens));
+  }
+
+  /**
+   * Records how long a successful request to the given model took.
+   *
+   * @param model the model that was called
+   * @param latencyMillis the end-to-end latency
+   */
+  public synchronized void record(Model model, long latencyMillis) {
+    int count = sampleCounts.get(model);
+    samples.get(model)[count % WINDOW] = latencyMillis;
+    sampleTimes.get(model)[count % WINDOW] = clock.getAsLong();
+    sampleCounts.put(model, count + 1);
+  }
+
+  /**
+   * Estimates the p95 latency of a model over its recent, unexpired samples, or its prior while
+   * there are too few of them.
+   *
+   * @param model the model
+   * @return the estimated p95 latency in milliseconds
+   */
+  public synchronized long estimateP95Millis(Model model) {
+    int count = Math.min(sampleCounts.get(model), WINDOW);
+    long oldest = clock.getAsLong() - sampleLifetimeMillis;
+    long[] latencies = samples.get(model);
+    long[] times = sampleTimes.get(model);
+    long[] fresh = new long[count];
+    int freshCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (times[i] >= oldest) {
+        fresh[freshCount++] = latencies[i];
+      }
+    }
+    if (freshCount < MIN_SAMPLES) {
+      return priors.get(model);
+    }
+    long[] sorted = Arrays.copyOf(fresh, freshCount);
+    Arrays.sort(sorted);
+    return sorted[(int) Math.ceil(0.95 * freshCount) - 1];
+  }
+
+  private long getBudgetMillis() {
+    int seconds = remainingSeconds.getAsInt();
+    if (seconds == NO_LIMIT) {
+      return p95TargetMillis;
+    }
+    long phaseBudget = (long) (Math.max(seconds, 0) * 1000L * phaseShare);
+    return Math.max(1, Math.min(p95TargetMillis, phaseBudget));
+  }
+}
@@ -0,0 +1,177 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A client-side stage that shrinks system messages before a request is sent. Only system messages
+ * are touched; user and assistant messages are sent exactly as written. Every step is
+ * deterministic, so a minified prefix stays byte-identical between turns and remains cacheable.
+ *
+ * <p>The stages, each of which can be switched off, are:
+ *
+ * <ul>
+ *   <li>label abbreviation: configured labels are replaced with shorter, stable forms
+ *   <li>whitespace normalisation: runs of spaces collapse, lines are trimmed and blank lines
+ *       dropped
+ *   <li>de-duplication: lines and sentences already sent in an earlier system message are dropped
+ * </ul>
+ */
+public class PromptMinifier {
+
+  /**
+   * The minified messages, with token counts before and after minification estimated at roughly
+   * four characters a token.
+   */
+  public static class Report {
+    private final List<ChatMessage> messages;
+    private final int originalTokens;
+    private final int minifiedTokens;
+
+    private Report(List<ChatMessage> messages, int originalTokens, int minifiedTokens) {
+      this.messages = messages;
+      this.originalTokens = originalTokens;
+      this.minifiedTokens = minifiedTokens;
+    }
+
+    public List<ChatMessage> getMessages() {
+      return messages;
+    }
+
+    public int getOriginalTokens() {
+      return originalTokens;
+    }
+
+    public int getMinifiedTokens() {
+      return minifiedTokens;
+    }
+
+    public int getTokensSaved() {
+      return originalTokens - minifiedTokens;
+    }
+  }
+
+  // Short sentences such as "Yes." are legitimately repeated, so they are never de-duplicated
+  private static final int MIN_DEDUPLICATED_LENGTH = 20;
+
+  /**
+   * Estimates the number of tokens in the given text.
+   *
+   * @param text the text to measure
+   * @return the estimated token count
+   */
+  public static int estimateTokens(String text) {
+    return (text.length() + 3) / 4;
+  }
+
+  private boolean normalizeWhitespace = true;
+  private boolean deduplicateSentences = true;
+  private final Map<String, String> abbreviations = new LinkedHashMap<>();
+
+  public PromptMinifier setNormalizeWhitespace(boolean normalizeWhitespace) {
+    this.normalizeWhitespace = normalizeWhitespace;
+    return this;
+  }
+
+  public PromptMinifier setDeduplicateSentences(boolean deduplicateSentences) {
+    this.deduplicateSentences = deduplicateSentences;
+    return this;
+  }
+
+  /**
+   * Registers a label to be replaced by a shorter form in system messages.
+   *
+   * @param label the exact text to replace
+   * @param abbreviation the replacement
+   * @return this minifier
+   */
+  public PromptMinifier addAbbreviation(String label, String abbreviation) {
+    abbreviations.put(label, abbreviation);
+    return this;
+  }
+
+  /**
+   * Minifies the system messages of the given list. The minifier keeps no state between calls, so
+   * one minifier can be shared by requests sent concurrently.
+   *
+   * @param messages the messages in the order they will be sent
+   * @return a report holding a new list with the system messages minified
+   */
+  public Report minify(List<ChatMessage> messages) {
+    List<ChatMessage> minified = new ArrayList<>(messages.size());
+    Set<String> seen = new HashSet<>();
+    int originalTokens = 0;
+    int minifiedTokens = 0;
+
+    for (ChatMessage message : messages) {
+      originalTokens += estimateTokens(message.getContent());
+      ChatMessage result = message;
+      if ("system".equals(message.getRole())) {
+        String content = minifyContent(message.getContent(), seen);
+        result = new ChatMessage(message.getRole(), content);
+      }
+      minifiedTokens += estimateTokens(result.getContent());
+      minified.add(result);
+    }
+
+    return new Report(minified, originalTokens, minifiedTokens);
+  }
+
+  private String minifyContent(String content, Set<String> seen) {
+    for (Map.Entry<String, String> entry : abbreviations.entrySet()) {
+      content = content.replace(entry.getKey(), entry.getValue());
+    }
+    if (!normalizeWhitespace && !deduplicateSentences) {
+      return content;
+    }
+
+    StringBuilder sb = new StringBuilder(content.length());
+    for (String line : content.split("\n")) {
+      String kept = normalizeWhitespace ? line.trim().replaceAll("[ \\t]+", " ") : line;
+      if (deduplicateSentences) {
+        kept = dropSeenSentences(kept, seen);
+      }
+      if (normalizeWhitespace && kept.isBlank()) {
+        continue;
+      }
+      if (sb.length() > 0) {
+        sb.append('\n');
+      }
+      sb.append(kept);
+    }
+    return sb.toString();
+  }
+
+  private String dropSeenSentences(String line, Set<String> seen) {
+    // Whole lines are keyed with a leading newline so they never collide with sentence keys
+    if (!line.isBlank() && !seen.add("\n" + line.trim().toLowerCase())) {
+      return ""; // the whole line was already sent
+    }
+    String[] sentences = line.split("(?<=[.!?])\\s+");
+    boolean[] repeated = new boolean[sentences.length];
+    boolean dropped = false;
+    for (int i = 0; i < sentences.length; i++) {
+      String key = sentences[i].trim().toLowerCase();
+      if (key.length() < MIN_DEDUPLICATED_LENGTH) {
+        // keyed apart, with a leading carriage return, as repeating one alone is not enough
+        repeated[i] = !seen.add("\r" + key);
+      } else if (!seen.add(key)) {
+        repeated[i] = true;
+        dropped = true;
+      }
+    }
+    List<String> kept = new ArrayList<>();
+    for (int i = 0; i < sentences.length; i++) {
+      boolean isShort = sentences[i].trim().length() < MIN_DEDUPLICATED_LENGTH;
+      // Prompts are hard-wrapped, so short repeats on a repeated line are only its leftovers
+      if (!repeated[i] || (isShort && !dropped)) {
+        kept.add(sentences[i]);
+      }
+    }
+    return String.join(" ", kept);
+  }
+}
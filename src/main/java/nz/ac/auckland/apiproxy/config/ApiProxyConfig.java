@@ -21,6 +21,18 @@ public class ApiProxyConfig {
     this.email = email;
   }
 
+  /**
+   * Creates a config from the given credentials instead of reading the config file, e.g. for a
+   * local stand-in of the proxy that does not check them.
+   *
+   * @param apiKey the API key
+   * @param email the email the key belongs to
+   * @return the config
+   */
+  public static ApiProxyConfig of(String apiKey, String email) {
+    return new ApiProxyConfig(apiKey, email);
+  }
+
   public String getApiKey() {
     return apiKey;
   }
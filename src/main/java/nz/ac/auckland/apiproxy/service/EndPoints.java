@@ -1,8 +1,14 @@
 package nz.ac.auckland.apiproxy.service;
 
+/**
+ * Proxy endpoints. The base URL can be pointed elsewhere, e.g. at a local stand-in for load tests,
+ * with {@code -Dproxy.url}, which must be set before this class is first used.
+ */
 public class EndPoints {
+  public static final String PROXY_BASE_URL =
+      System.getProperty(
+          "proxy.url", "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy");
   public static final String PROXY_OPENAI_CHAT_COMPLETIONS =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/openai-chat-completion";
-  public static final String PROXY_TEXT_TO_SPEECH =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/text-to-speech";
+      PROXY_BASE_URL + "/openai-chat-completion";
+  public static final String PROXY_TEXT_TO_SPEECH = PROXY_BASE_URL + "/text-to-speech";
 }
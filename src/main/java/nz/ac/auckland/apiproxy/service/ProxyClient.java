@@ -0,0 +1,91 @@
+package nz.ac.auckland.apiproxy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared HTTP client and JSON mapper for all proxy calls. Connections to the proxy are pooled and
+ * kept alive between requests, so only the first call pays for DNS and the TLS handshake, and
+ * {@link #warmUp()} lets the application pay that cost before the player is waiting. Every call
+ * is bounded by default timeouts, so a stalled proxy cannot hold a connection and a thread forever.
+ */
+public class ProxyClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProxyClient.class);
+
+  private static final PoolingHttpClientConnectionManager POOL =
+      new PoolingHttpClientConnectionManager();
+  private static final CloseableHttpClient CLIENT;
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final RequestConfig REQUEST_CONFIG =
+      RequestConfig.custom()
+          .setConnectionRequestTimeout(2_000) // waiting for a pooled connection
+          .setConnectTimeout(3_000)
+          .setSocketTimeout(30_000) // longest silence while a reply is generated
+          .build();
+
+  static {
+    // -Dproxy.connections raises the pool for load tests that simulate many players at once
+    int connections = Integer.getInteger("proxy.connections", 32);
+    POOL.setMaxTotal(connections);
+    POOL.setDefaultMaxPerRoute(Math.max(connections / 2, 1));
+    CLIENT =
+        HttpClients.custom()
+            .setConnectionManager(POOL)
+            .setDefaultRequestConfig(REQUEST_CONFIG)
+            .build();
+  }
+
+  public static CloseableHttpClient getClient() {
+    return CLIENT;
+  }
+
+  public static ObjectMapper getMapper() {
+    return MAPPER;
+  }
+
+  /**
+   * Returns the timeouts every call uses unless it sets its own.
+   *
+   * @return the default request config
+   */
+  public static RequestConfig getRequestConfig() {
+    return REQUEST_CONFIG;
+  }
+
+  /**
+   * Opens a pooled connection to each proxy endpoint in parallel and waits for them. Failures are
+   * only logged, since the real request will retry the connection anyway.
+   */
+  public static void warmUp() {
+    String[] urls = {EndPoints.PROXY_OPENAI_CHAT_COMPLETIONS, EndPoints.PROXY_TEXT_TO_SPEECH};
+    List<CompletableFuture<Void>> connections = new ArrayList<>();
+    for (String url : urls) {
+      connections.add(
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  CLIENT.execute(
+                      new HttpHead(url),
+                      response -> {
+                        EntityUtils.consume(response.getEntity());
+                        return response.getStatusLine().getStatusCode();
+                      });
+                } catch (Exception e) {
+                  LOG.warn("Unable to pre-open connection to {}: {}", url, e.toString());
+                }
+              }));
+    }
+    CompletableFuture.allOf(connections.toArray(new CompletableFuture[0])).join();
+  }
+}
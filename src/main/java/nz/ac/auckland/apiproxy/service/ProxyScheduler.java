@@ -0,0 +1,296 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+
+/**
+ * Decides which proxy call goes next when more calls want to run than the proxy should be sent at
+ * once. Each call waits for a permit, and whenever one frees up it goes to the most urgent waiting
+ * call. A call's priority class is read again at that moment, so a turn becomes urgent as soon as
+ * the player walks into its room. A call also gains one class for every {@code agingMillis} it has
+ * waited, up to the class just behind {@link Priority#FOREGROUND}, so background work is delayed
+ * but never starved, and never holds up a turn the player is watching.
+ *
+ * <p>Waiting uses a {@link ReentrantLock} rather than a monitor, so callers on virtual threads do
+ * not pin their carrier while they queue.
+ */
+public class ProxyScheduler {
+
+  /** Priority classes, most urgent first. */
+  public enum Priority {
+    /** A turn in the room the player is looking at. */
+    FOREGROUND,
+    /** Speech the player is about to hear. */
+    SPEECH,
+    /** A turn in a room the player has since left. */
+    BACKGROUND_TURN,
+    /** Work done ahead of time in case it is needed, such as speculative answers and speech. */
+    PREFETCH,
+    /** Work nobody is waiting on. */
+    BACKGROUND
+  }
+
+  /** A granted slot. Closing it passes the slot on to the next call; later closes do nothing. */
+  public interface Permit extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static final ProxyScheduler INSTANCE =
+      new ProxyScheduler(Integer.getInteger("proxy.concurrency", 4), 1500);
+
+  private static final long MAX_WAIT_MILLIS = 1000; // re-checks cancellation even if never woken
+
+  public static ProxyScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  private static class Waiter {
+    private final Supplier<Priority> priority;
+    private final long enqueuedMillis;
+    private final long sequence;
+    private boolean granted;
+
+    private Waiter(Supplier<Priority> priority, long enqueuedMillis, long sequence) {
+      this.priority = priority;
+      this.enqueuedMillis = enqueuedMillis;
+      this.sequence = sequence;
+    }
+  }
+
+  private final int maxConcurrent;
+  private final long agingMillis;
+  private final LongSupplier clock;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final List<Waiter> waiting = new ArrayList<>();
+  private int running;
+  private long sequence;
+
+  // Queue-time metrics per priority class, guarded by the lock
+  private final long[] granted = new long[Priority.values().length];
+  private final long[] totalQueueMillis = new long[Priority.values().length];
+  private final long[] maxQueueMillis = new long[Priority.values().length];
+
+  /**
+   * Creates a scheduler. The application uses the shared instance, whose cap can be set with
+   * {@code -Dproxy.concurrency}.
+   *
+   * @param maxConcurrent the most calls allowed to run at once
+   * @param agingMillis how long a call waits to be promoted by one priority class
+   */
+  public ProxyScheduler(int maxConcurrent, long agingMillis) {
+    this(maxConcurrent, agingMillis, () -> System.nanoTime() / 1_000_000);
+  }
+
+  /**
+   * Creates a scheduler that measures waiting with the given clock.
+   *
+   * @param maxConcurrent the most calls allowed to run at once
+   * @param agingMillis how long a call waits to be promoted by one priority class
+   * @param clock supplies a monotonic time in milliseconds
+   */
+  public ProxyScheduler(int maxConcurrent, long agingMillis, LongSupplier clock) {
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException(
+          "concurrency cap must be at least 1, but was given " + maxConcurrent);
+    }
+    if (agingMillis < 1) {
+      throw new IllegalArgumentException(
+          "aging interval must be at least 1 ms, but was given " + agingMillis);
+    }
+    this.maxConcurrent = maxConcurrent;
+    this.agingMillis = agingMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Waits for a slot to call the proxy.
+   *
+   * @param priority supplies the call's current priority class
+   * @param deadlineMillis when to give up waiting, in milliseconds since the epoch, or 0 for never
+   * @param cancelled checked while waiting; see {@link #wakeUp}
+   * @return the permit, to be closed once the call finished
+   * @throws ApiProxyException if the deadline passes or the call is cancelled before a slot frees
+   */
+  public Permit acquire(Supplier<Priority> priority, long deadlineMillis, BooleanSupplier cancelled)
+      throws ApiProxyException {
+    Priority grantedAs;
+    lock.lock();
+    try {
+      Waiter waiter = new Waiter(priority, clock.getAsLong(), sequence++);
+      waiting.add(waiter);
+      dispatch();
+      while (!waiter.granted) {
+        long waitMillis = MAX_WAIT_MILLIS;
+        if (deadlineMillis > 0) {
+          waitMillis = Math.min(waitMillis, deadlineMillis - System.currentTimeMillis());
+        }
+        if (cancelled.getAsBoolean() || waitMillis <= 0) {
+          waiting.remove(waiter);
+          throw new ApiProxyException(
+              cancelled.getAsBoolean()
+                  ? "Call was cancelled while queued for the proxy"
+                  : "Deadline passed while queued for the proxy");
+        }
+        try {
+          changed.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          if (!waiter.granted) {
+            waiting.remove(waiter);
+            throw new ApiProxyException("Interrupted while queued for the proxy", e);
+          }
+        }
+      }
+
+      grantedAs = waiter.priority.get();
+      long queuedMillis = clock.getAsLong() - waiter.enqueuedMillis;
+      int index = grantedAs.ordinal();
+      granted[index]++;
+      totalQueueMillis[index] += queuedMillis;
+      maxQueueMillis[index] = Math.max(maxQueueMillis[index], queuedMillis);
+    } finally {
+      lock.unlock();
+    }
+    AtomicBoolean released = new AtomicBoolean();
+    return () -> {
+      if (released.compareAndSet(false, true)) {
+        release();
+      }
+    };
+  }
+
+  /** Wakes queued calls so they re-check whether they were cancelled, e.g. after an abort. */
+  public void wakeUp() {
+    lock.lock();
+    try {
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueuedCount() {
+    lock.lock();
+    try {
+      return waiting.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getRunningCount() {
+    lock.lock();
+    try {
+      return running;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the mean time calls of a class waited for a slot.
+   *
+   * @param priority the priority class a call had when it was granted its slot
+   * @return the mean queue time in milliseconds, or 0 if no call of that class ran yet
+   */
+  public double getAverageQueueMillis(Priority priority) {
+    lock.lock();
+    try {
+      int index = priority.ordinal();
+      return granted[index] == 0 ? 0 : (double) totalQueueMillis[index] / granted[index];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the longest time a call of a class waited for a slot.
+   *
+   * @param priority the priority class a call had when it was granted its slot
+   * @return the longest queue time in milliseconds
+   */
+  public long getMaxQueueMillis(Priority priority) {
+    lock.lock();
+    try {
+      return maxQueueMillis[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Describes the queue times so far, one priority class per line.
+   *
+   * @return the report
+   */
+  public String report() {
+    StringBuilder sb = new StringBuilder("Proxy queue times:");
+    lock.lock();
+    try {
+      for (Priority priority : Priority.values()) {
+        int index = priority.ordinal();
+        if (granted[index] > 0) {
+          sb.append(
+              String.format(
+                  "%n  %-15s %5d calls, mean %6.1f ms, max %6d ms",
+                  priority,
+                  granted[index],
+                  (double) totalQueueMillis[index] / granted[index],
+                  maxQueueMillis[index]));
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return sb.toString();
+  }
+
+  private void release() {
+    lock.lock();
+    try {
+      running--;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Hands free slots to the most urgent waiters. Must be called holding the lock. */
+  private void dispatch() {
+    boolean grantedAny = false;
+    long now = clock.getAsLong();
+    while (running < maxConcurrent && !waiting.isEmpty()) {
+      Waiter best = null;
+      double bestRank = Double.MAX_VALUE;
+      for (Waiter waiter : waiting) {
+        int ordinal = waiter.priority.get().ordinal();
+        double rank = ordinal - (double) (now - waiter.enqueuedMillis) / agingMillis;
+        if (ordinal > Priority.FOREGROUND.ordinal()) {
+          rank = Math.max(rank, Priority.FOREGROUND.ordinal() + 1); // aging never passes it
+        }
+        // equal ranks go first come, first served, as sequence numbers only grow
+        if (rank < bestRank || (rank == bestRank && waiter.sequence < best.sequence)) {
+          best = waiter;
+          bestRank = rank;
+        }
+      }
+      waiting.remove(best);
+      best.granted = true;
+      running++;
+      grantedAny = true;
+    }
+    if (grantedAny) {
+      changed.signalAll();
+    }
+  }
+}
@@ -7,10 +7,12 @@ import javax.json.JsonObjectBuilder;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
 import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.ProxyClient;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Priority;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 
 public class TextToSpeechRequest {
 
@@ -97,6 +99,10 @@ public class TextToSpeechRequest {
   private String text = null; // Required
   private Provider provider = Provider.OPENAI; // Default provider
   private Voice voice = Voice.NOT_SET;
+  private volatile Priority priority = Priority.SPEECH;
+  private long queuedMillis;
+  private volatile HttpPost inFlight = null;
+  private volatile boolean aborted = false;
 
   public TextToSpeechRequest(ApiProxyConfig config) {
     this.config = config;
@@ -117,7 +123,71 @@ public class TextToSpeechRequest {
     return this;
   }
 
-  @SuppressWarnings("resource")
+  /**
+   * Sets the priority class this request queues for the proxy with. Requests are speech about to
+   * be heard unless set otherwise. A request still queued is dispatched at the new priority.
+   *
+   * @param priority the priority class
+   * @return this request
+   */
+  public TextToSpeechRequest setPriority(Priority priority) {
+    this.priority = priority;
+    return this;
+  }
+
+  /**
+   * Aborts a request executing on another thread, whether it is still queued for the proxy or
+   * already sent. The executing thread then fails with an {@link ApiProxyException}, and a request
+   * aborted before it is executed fails straight away.
+   */
+  public void abort() {
+    aborted = true;
+    HttpPost post = inFlight;
+    if (post != null) {
+      post.abort();
+    }
+    ProxyScheduler.getInstance().wakeUp(); // in case it is still queued
+  }
+
+  /**
+   * Returns whether {@link #abort()} was called, so a caller can tell an abort from a failure.
+   *
+   * @return true if the request was aborted
+   */
+  public boolean isAborted() {
+    return aborted;
+  }
+
+  /**
+   * Returns how long the last execution waited for a slot before it was sent.
+   *
+   * @return the queue time in milliseconds
+   */
+  public long getQueuedMillis() {
+    return queuedMillis;
+  }
+
+  /**
+   * Runs the request and response codecs on a synthetic exchange, so class loading and JIT warm-up
+   * happen before the first real utterance rather than inside it.
+   *
+   * @throws ApiProxyException if the synthetic response cannot be parsed
+   */
+  public static void warmUpCodecs() throws ApiProxyException {
+    Json.createObjectBuilder()
+        .add("provider", Provider.OPENAI.getProviderCode())
+        .add("text", "warm")
+        .add("voice", Voice.OPENAI_NOVA.getVoiceCode())
+        .build()
+        .toString();
+    String response = "{\"success\":true,\"code\":0,\"message\":\"\",\"audio\":\"warm\"}";
+    try {
+      ProxyClient.getMapper().readValue(response, ResponseTtsViaProxy.class);
+    } catch (Exception e) {
+      throw new ApiProxyException("Unable to warm up the text-to-speech codecs", e);
+    }
+  }
+
   public TextToSpeechResult execute() throws ApiProxyException {
 
     if (isEmpty(text)) {
@@ -146,6 +216,10 @@ public class TextToSpeechRequest {
               + "_xxx'.");
     }
 
+    long queued = System.nanoTime();
+    ProxyScheduler.Permit permit =
+        ProxyScheduler.getInstance().acquire(() -> priority, 0, () -> aborted);
+    queuedMillis = (System.nanoTime() - queued) / 1_000_000;
     try {
       JsonObjectBuilder jsonOverallBuilder =
           Json.createObjectBuilder() //
@@ -155,7 +229,7 @@ public class TextToSpeechRequest {
       jsonOverallBuilder.add("voice", voice.getVoiceCode());
       jsonOverallBuilder.add("access_token", config.getApiKey()).add("email", config.getEmail());
 
-      CloseableHttpClient client = HttpClients.createDefault();
+      CloseableHttpClient client = ProxyClient.getClient();
 
       ResponseTtsViaProxy responseTts = null;
       JsonObject value = jsonOverallBuilder.build();
@@ -164,8 +238,14 @@ public class TextToSpeechRequest {
       httpPost.setHeader("Content-Type", "application/json");
       httpPost.setHeader("Accept", "application/json");
       httpPost.setEntity(new StringEntity(value.toString()));
-      ObjectMapper mapperApiMapper = new ObjectMapper();
+      ObjectMapper mapperApiMapper = ProxyClient.getMapper();
 
+      // abort() sets the flag before reading inFlight, and this does the reverse, so one side
+      // always sees the other
+      inFlight = httpPost;
+      if (aborted) {
+        httpPost.abort();
+      }
       responseTts =
           (ResponseTtsViaProxy)
               client.execute(
@@ -181,6 +261,9 @@ public class TextToSpeechRequest {
 
     } catch (Exception e) {
       throw new ApiProxyException("Problem calling API: " + e.getMessage());
+    } finally {
+      inFlight = null;
+      permit.close();
     }
   }
 
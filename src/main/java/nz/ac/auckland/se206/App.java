@@ -1,11 +1,14 @@
 package nz.ac.auckland.se206;
 
 import java.io.IOException;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import nz.ac.auckland.se206.assets.AudioAssets;
+import nz.ac.auckland.se206.chat.ChatEngine;
 
 /**
  * This is the entry point of the JavaFX application. This class initializes and runs the JavaFX
@@ -54,10 +57,28 @@ public class App extends Application {
    */
   @Override
   public void start(final Stage stage) throws IOException {
+    // Warm up the proxy connections and codecs while the courtroom loads
+    Prewarmer.start();
+    StartupTimer.mark("toolkit ready");
     Parent root = loadFxml("game");
+    StartupTimer.mark("game loaded");
     scene = new Scene(root);
     stage.setScene(scene);
     stage.show();
     root.requestFocus();
+    new AnimationTimer() {
+      @Override
+      public void handle(long now) {
+        StartupTimer.mark("first frame");
+        stop();
+      }
+    }.start();
+  }
+
+  /** Releases the pooled sound players and abandons any chat turns when the application exits. */
+  @Override
+  public void stop() {
+    ChatEngine.getInstance().shutdown();
+    AudioAssets.getInstance().dispose();
   }
 }
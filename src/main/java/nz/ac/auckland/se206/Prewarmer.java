@@ -0,0 +1,82 @@
+package nz.ac.auckland.se206;
+
+import java.util.Map;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.service.ProxyClient;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
+import nz.ac.auckland.se206.assets.AudioAssets;
+import nz.ac.auckland.se206.assets.ImageAssets;
+import nz.ac.auckland.se206.chat.Persona;
+import nz.ac.auckland.se206.prompts.PromptEngineering;
+import nz.ac.auckland.se206.prompts.PromptRegistry;
+import nz.ac.auckland.se206.speech.LocalSpeech;
+import nz.ac.auckland.se206.speech.TextToSpeech;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pays the one-off costs of the first chat turn while the courtroom is still loading: reading the
+ * proxy config, opening pooled connections to the proxy, loading and JIT-compiling the JSON codecs,
+ * compiling the persona prompts, synthesizing predictable speech and decoding bundled sounds and
+ * images. Each stage is timed and logged, and a failing stage never stops the others.
+ */
+public class Prewarmer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Prewarmer.class);
+
+  private static Thread thread;
+
+  /** Starts pre-warming on a background daemon thread. Later calls have no effect. */
+  public static synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    thread = new Thread(Prewarmer::run, "prewarm");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void run() {
+    long start = System.nanoTime();
+    stage("config", ApiProxyConfig::readConfig);
+    stage("connections", ProxyClient::warmUp);
+    stage(
+        "codecs",
+        () -> {
+          ChatCompletionRequest.warmUpCodecs();
+          TextToSpeechRequest.warmUpCodecs();
+        });
+    stage(
+        "personas",
+        () -> {
+          for (Persona persona : Persona.values()) {
+            String role = PromptEngineering.loadTemplate(persona.getPromptId());
+            PromptEngineering.getPrompt("context.txt", Map.of("role", role));
+          }
+        });
+    // synthesized in the background, so the stage only times queuing the lines
+    stage(
+        "speech",
+        () -> TextToSpeech.prefetch(PromptRegistry.getInstance().getText("verdict.txt").trim()));
+    stage("local speech", () -> LocalSpeech.getInstance().warmUp());
+    stage("sounds", () -> AudioAssets.getInstance().preload());
+    // decoded on the image loader's own threads, so this only times starting them
+    stage("images", () -> ImageAssets.getInstance().preloadRooms());
+    LOG.debug("Prewarm finished in {}ms", (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private interface Stage {
+    void run() throws Exception;
+  }
+
+  private static void stage(String name, Stage stage) {
+    long start = System.nanoTime();
+    try {
+      stage.run();
+      LOG.debug("Prewarm {} took {}ms", name, (System.nanoTime() - start) / 1_000_000);
+    } catch (Exception e) {
+      LOG.warn("Prewarm {} failed: {}", name, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package nz.ac.auckland.se206;
+
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs when each startup stage finishes, measured from the moment the process was launched, so
+ * time-to-first-frame can be tracked across kiosk restarts.
+ */
+public class StartupTimer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StartupTimer.class);
+
+  private static final long LAUNCHED =
+      ProcessHandle.current()
+          .info()
+          .startInstant()
+          .map(Instant::toEpochMilli)
+          .orElse(System.currentTimeMillis());
+
+  /**
+   * Logs that a startup stage has finished.
+   *
+   * @param stage a short name for the stage
+   */
+  public static void mark(String stage) {
+    LOG.info("Startup: {} at {}ms", stage, System.currentTimeMillis() - LAUNCHED);
+  }
+}
@@ -0,0 +1,165 @@
+package nz.ac.auckland.se206;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import nz.ac.auckland.se206.chat.ChatEngine;
+import nz.ac.auckland.se206.prompts.PromptRegistry;
+
+/**
+ * The flow of one trial, independent of any display: the player questions the personas until the
+ * time runs out or they choose to judge, then has a short time to give a verdict. The clock is
+ * driven from outside by calling {@link #tick} once a second, from a JavaFX timeline in the game
+ * or from a scheduler when trials run headless. Chat turns of the trial's engine must finish
+ * within the current phase, and are cancelled once questioning is over.
+ */
+public class Trial {
+
+  /** The phases of a trial, in the order they happen. */
+  public enum Phase {
+    QUESTIONING,
+    VERDICT,
+    FINISHED
+  }
+
+  /** Receives a trial's phase changes. */
+  public interface PhaseListener {
+
+    /**
+     * Called on the thread that moved the trial on, once the new phase has started.
+     *
+     * @param phase the phase the trial is now in
+     */
+    void onPhaseChanged(Phase phase);
+  }
+
+  private final ChatEngine engine;
+  private final int verdictSeconds;
+  private final List<PhaseListener> listeners = new CopyOnWriteArrayList<>();
+  private volatile Phase phase = Phase.QUESTIONING; // only changed while holding this trial's lock
+  private volatile int secondsLeft;
+  private Boolean verdict;
+
+  /**
+   * Creates a trial in its questioning phase. The clock does not run until {@link #tick} is called.
+   *
+   * @param engine the engine running the trial's chat turns
+   * @param questioningSeconds how long the player may question the personas
+   * @param verdictSeconds how long the player has to give a verdict
+   */
+  public Trial(ChatEngine engine, int questioningSeconds, int verdictSeconds) {
+    if (questioningSeconds < 1 || verdictSeconds < 1) {
+      throw new IllegalArgumentException(
+          "phases must last at least a second, but were given "
+              + questioningSeconds
+              + " and "
+              + verdictSeconds);
+    }
+    this.engine = engine;
+    this.secondsLeft = questioningSeconds;
+    this.verdictSeconds = verdictSeconds;
+    engine.setRemainingTime(this::getSecondsLeft);
+  }
+
+  public ChatEngine getEngine() {
+    return engine;
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  /**
+   * Returns the time left in the current phase.
+   *
+   * @return the seconds left, or 0 once the trial is finished
+   */
+  public int getSecondsLeft() {
+    return secondsLeft;
+  }
+
+  /**
+   * Returns the verdict the player gave.
+   *
+   * @return true if the player agreed with the decision, false if not, or null if they gave none
+   */
+  public synchronized Boolean getVerdict() {
+    return verdict;
+  }
+
+  /**
+   * Subscribes to this trial's phase changes.
+   *
+   * @param listener the listener
+   */
+  public void addPhaseListener(PhaseListener listener) {
+    listeners.add(listener);
+  }
+
+  /** Counts down one second of the current phase, moving on to the next when it runs out. */
+  public void tick() {
+    Phase entered = null;
+    synchronized (this) {
+      if (phase == Phase.FINISHED) {
+        return;
+      }
+      secondsLeft--;
+      if (secondsLeft <= 0) {
+        entered = advance();
+      }
+    }
+    publish(entered);
+  }
+
+  /** Ends questioning early, as when the player presses the judge button. */
+  public void judge() {
+    Phase entered = null;
+    synchronized (this) {
+      if (phase == Phase.QUESTIONING) {
+        entered = advance();
+      }
+    }
+    publish(entered);
+  }
+
+  /**
+   * Records the player's verdict and finishes the trial. A verdict given outside the verdict phase
+   * is ignored.
+   *
+   * @param agreed whether the player agreed with the decision under trial
+   * @return the outcome to show the player, or null if the verdict was ignored
+   */
+  public String decide(boolean agreed) {
+    synchronized (this) {
+      if (phase != Phase.VERDICT) {
+        return null;
+      }
+      verdict = agreed;
+      advance();
+    }
+    publish(Phase.FINISHED);
+    return PromptRegistry.getInstance().getText("verdict.txt").trim();
+  }
+
+  /** Moves to the next phase. Must be called holding the lock. */
+  private Phase advance() {
+    if (phase == Phase.QUESTIONING) {
+      phase = Phase.VERDICT;
+      secondsLeft = verdictSeconds;
+      // nobody will read the replies of a finished interrogation
+      engine.cancelAll();
+    } else {
+      phase = Phase.FINISHED;
+      secondsLeft = 0;
+    }
+    return phase;
+  }
+
+  private void publish(Phase entered) {
+    if (entered == null) {
+      return;
+    }
+    for (PhaseListener listener : listeners) {
+      listener.onPhaseChanged(entered);
+    }
+  }
+}
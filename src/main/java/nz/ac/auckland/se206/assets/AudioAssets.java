@@ -0,0 +1,155 @@
+package nz.ac.auckland.se206.assets;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AudioAssets owns the sounds bundled under "resources/sounds". Each sound is opened and decoded
+ * once in the background at startup, and its players are pooled: a finished player is rewound and
+ * kept for the next play rather than disposed, so entering a scene starts its audio without
+ * building a new media pipeline. Every player is disposed when the application exits.
+ */
+public class AudioAssets {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AudioAssets.class);
+
+  public static final String PATROL_INTRO = "patrol_intro.mp3";
+
+  private static final String SOUND_FOLDER = "/sounds/";
+  private static final String[] BUNDLED_SOUNDS = {PATROL_INTRO};
+  // Players kept per sound; overlapping plays beyond this get a player that is disposed after use
+  private static final int POOLED_PLAYERS_PER_SOUND = 2;
+
+  private static final AudioAssets INSTANCE = new AudioAssets();
+
+  public static AudioAssets getInstance() {
+    return INSTANCE;
+  }
+
+  private final Map<String, Media> media = new HashMap<>();
+  private final Map<String, Deque<MediaPlayer>> idle = new HashMap<>();
+  private final Map<String, Integer> pooled = new HashMap<>();
+  private final List<MediaPlayer> players = new ArrayList<>();
+  private boolean disposed;
+
+  private AudioAssets() {}
+
+  /** Opens and decodes every bundled sound, so the first play of each starts immediately. */
+  public void preload() {
+    for (String sound : BUNDLED_SOUNDS) {
+      long start = System.nanoTime();
+      MediaPlayer player;
+      synchronized (this) {
+        if (disposed || pooled.getOrDefault(sound, 0) > 0) {
+          continue;
+        }
+        player = createPlayer(sound, true);
+      }
+      if (player == null) {
+        continue;
+      }
+      player.setOnReady(
+          () -> LOG.debug("Decoded {} in {}ms", sound, (System.nanoTime() - start) / 1_000_000));
+      release(sound, player, true);
+    }
+  }
+
+  /**
+   * Plays a bundled sound from the start on a pooled player.
+   *
+   * @param sound the file name of the sound, e.g. {@link #PATROL_INTRO}
+   * @return the player, which returns to the pool when the sound ends
+   */
+  public synchronized MediaPlayer play(String sound) {
+    if (disposed) {
+      return null;
+    }
+    MediaPlayer player = idle.computeIfAbsent(sound, s -> new ArrayDeque<>()).poll();
+    if (player == null) {
+      boolean pool = pooled.getOrDefault(sound, 0) < POOLED_PLAYERS_PER_SOUND;
+      player = createPlayer(sound, pool);
+      if (player == null) {
+        return null;
+      }
+    }
+    player.seek(Duration.ZERO);
+    player.play();
+    return player;
+  }
+
+  /** Stops and disposes every player. Later plays are ignored. */
+  public synchronized void dispose() {
+    disposed = true;
+    for (MediaPlayer player : players) {
+      player.stop();
+      player.dispose();
+    }
+    players.clear();
+    idle.clear();
+    pooled.clear();
+    media.clear();
+  }
+
+  private MediaPlayer createPlayer(String sound, boolean pool) {
+    Media source = media.get(sound);
+    if (source == null) {
+      URL url = AudioAssets.class.getResource(SOUND_FOLDER + sound);
+      if (url == null) {
+        LOG.warn("{} resource not found under {}", sound, SOUND_FOLDER);
+        return null;
+      }
+      source = new Media(url.toExternalForm());
+      media.put(sound, source);
+    }
+
+    MediaPlayer player = new MediaPlayer(source);
+    player.setOnEndOfMedia(() -> release(sound, player, pool));
+    player.setOnError(
+        () -> {
+          LOG.warn("Error playing {}: {}", sound, player.getError());
+          discard(sound, player, pool);
+        });
+    players.add(player);
+    if (pool) {
+      pooled.merge(sound, 1, Integer::sum);
+    }
+    return player;
+  }
+
+  private synchronized void release(String sound, MediaPlayer player, boolean pool) {
+    if (disposed) {
+      return;
+    }
+    if (!pool) {
+      discard(sound, player, false);
+      return;
+    }
+    player.stop(); // rewinds, ready for the next play
+    idle.computeIfAbsent(sound, s -> new ArrayDeque<>()).add(player);
+  }
+
+  private synchronized void discard(String sound, MediaPlayer player, boolean pool) {
+    if (disposed) {
+      return;
+    }
+    Deque<MediaPlayer> waiting = idle.get(sound);
+    if (waiting != null) {
+      waiting.remove(player);
+    }
+    if (pool) {
+      pooled.merge(sound, -1, Integer::sum);
+    }
+    players.remove(player);
+    player.dispose();
+  }
+}
@@ -0,0 +1,124 @@
+package nz.ac.auckland.se206.assets;
+
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.scene.image.Image;
+
+/**
+ * ImageAssets owns the images bundled under "resources/images". Images are decoded in the
+ * background, at the size they are displayed at rather than their full resolution, which keeps
+ * decoding off the FX thread and textures small. Decoded images are kept in a bounded cache keyed
+ * by image and size, and the room backgrounds, including the image swapped in when the delivery is
+ * pushed, are preloaded at startup. A released image is only softly held, so it is decoded again
+ * only if the memory was actually needed in between.
+ */
+public class ImageAssets {
+
+  /** The width and height of the square area every room background is displayed in. */
+  public static final double ROOM_SIZE = 650;
+
+  public static final String COURTROOM = "courtroom.png";
+  public static final String PATROL = "Patrol1.png";
+  public static final String PATROL_PUSHED = "Patrol2.png";
+  public static final String DELIVERY = "human.png";
+  public static final String SECURITY = "security.png";
+
+  private static final String IMAGE_FOLDER = "/images/";
+  private static final String[] ROOM_IMAGES = {
+    COURTROOM, PATROL, PATROL_PUSHED, DELIVERY, SECURITY
+  };
+  private static final int MAX_CACHED_IMAGES = 8;
+
+  private static final ImageAssets INSTANCE = new ImageAssets();
+
+  public static ImageAssets getInstance() {
+    return INSTANCE;
+  }
+
+  // Least recently used first
+  private final Map<String, Image> cache =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+          return size() > MAX_CACHED_IMAGES;
+        }
+      };
+  private final Map<String, SoftReference<Image>> released = new HashMap<>();
+
+  private ImageAssets() {}
+
+  /**
+   * Returns a bundled image decoded to fit the given size, loading it in the background if it is
+   * not cached. The image may still be loading when returned; an image view shows it once ready.
+   *
+   * @param name the file name of the image, e.g. {@link #COURTROOM}
+   * @param width the width it is displayed at
+   * @param height the height it is displayed at
+   * @return the image
+   * @throws IllegalArgumentException if there is no such image
+   */
+  public synchronized Image get(String name, double width, double height) {
+    String key = name + "@" + width + "x" + height;
+    Image image = cache.get(key);
+    if (image == null) {
+      SoftReference<Image> kept = released.remove(key);
+      image = kept == null ? null : kept.get();
+    }
+    if (image == null) {
+      URL url = ImageAssets.class.getResource(IMAGE_FOLDER + name);
+      if (url == null) {
+        throw new IllegalArgumentException("Image not found: " + IMAGE_FOLDER + name);
+      }
+      image = new Image(url.toExternalForm(), width, height, true, true, true);
+    }
+    cache.put(key, image);
+    return image;
+  }
+
+  /**
+   * Returns a room background decoded at the displayed room size.
+   *
+   * @param name the file name of the image, e.g. {@link #COURTROOM}
+   * @return the image
+   */
+  public Image getRoom(String name) {
+    return get(name, ROOM_SIZE, ROOM_SIZE);
+  }
+
+  /**
+   * Releases every cached size of an image, so its pixels can be reclaimed once no view shows it
+   * and memory runs short. Until then, getting the image again does not decode it again.
+   *
+   * @param name the file name of the image
+   */
+  public synchronized void release(String name) {
+    Iterator<Map.Entry<String, Image>> entries = cache.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<String, Image> entry = entries.next();
+      if (entry.getKey().startsWith(name + "@")) {
+        released.put(entry.getKey(), new SoftReference<>(entry.getValue()));
+        entries.remove();
+      }
+    }
+  }
+
+  /**
+   * Estimates the memory a decoded room background takes.
+   *
+   * @return the size in bytes of a 32-bit image at the room size
+   */
+  public static long estimateRoomBytes() {
+    return (long) (ROOM_SIZE * ROOM_SIZE * 4);
+  }
+
+  /** Starts decoding every room background, so no room waits for its image. */
+  public void preloadRooms() {
+    for (String name : ROOM_IMAGES) {
+      getRoom(name);
+    }
+  }
+}
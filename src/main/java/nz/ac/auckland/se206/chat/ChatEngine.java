@@ -0,0 +1,187 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntSupplier;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.ModelRouter;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Priority;
+import nz.ac.auckland.se206.prompts.PromptEngineering;
+
+/**
+ * ChatEngine owns the persona sessions of a trial and runs their turns. Every turn gets its own
+ * virtual thread, so a turn blocked on the proxy costs no platform thread and many sessions can be
+ * in flight at once; each session still allows only one turn at a time. Turns carry a deadline at
+ * the end of the current phase, and are cancelled outright when the trial moves on. The turn of
+ * the persona in focus queues for the proxy ahead of turns in rooms the player has left.
+ *
+ * <p>The game uses the shared instance. Other engines can be created for trials that run outside
+ * the game, such as the load generator's. Such an engine keeps its own history and skips the game's
+ * journal, opener speculation and response cache, so that each trial's turns really go to the
+ * proxy and trials cannot see each other.
+ */
+public class ChatEngine {
+
+  private static final ChatEngine INSTANCE =
+      new ChatEngine(null, GlobalChatHistory.getInstance(), true);
+
+  public static ChatEngine getInstance() {
+    return INSTANCE;
+  }
+
+  private final ExecutorService executor =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-turn-", 0).factory());
+  private final Map<Persona, PersonaSession> sessions = new EnumMap<>(Persona.class);
+  private final GlobalChatHistory history;
+  private final boolean inGame;
+  private ApiProxyConfig config; // read on first use if not given
+  private volatile IntSupplier remainingSeconds = () -> Integer.MAX_VALUE;
+  private volatile Persona focus;
+
+  /**
+   * Creates an engine with no sessions, for a trial run outside the game.
+   *
+   * @param config the proxy config for the engine's requests
+   * @param history the history its sessions share
+   */
+  public ChatEngine(ApiProxyConfig config, GlobalChatHistory history) {
+    this(config, history, false);
+  }
+
+  private ChatEngine(ApiProxyConfig config, GlobalChatHistory history, boolean inGame) {
+    this.config = config;
+    this.history = history;
+    this.inGame = inGame;
+  }
+
+  /**
+   * Returns the persona's session, creating it on first use. In the game, a new session replays
+   * any conversation recovered from a previous run; a fresh one is registered for opener
+   * speculation.
+   *
+   * @param persona the persona
+   * @return the persona's session
+   * @throws ApiProxyException if the proxy config cannot be read
+   */
+  public synchronized PersonaSession getSession(Persona persona) throws ApiProxyException {
+    PersonaSession session = sessions.get(persona);
+    if (session != null) {
+      return session;
+    }
+
+    if (config == null) {
+      config = ApiProxyConfig.readConfig();
+    }
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config)
+            .setN(1)
+            .setTemperature(0.2)
+            .setTopP(persona.getTopP())
+            .setModel(Model.GPT_4_1_MINI)
+            .setMaxTokens(500)
+            .setRouter(ModelRouter.getInstance())
+            .setExpectedReplyTokens(120) // persona prompts ask for a few short sentences
+            .setMinifier(GlobalChatHistory.createContextMinifier());
+    request.addMessage(new ChatMessage("system", getSystemPrompt(persona)));
+
+    String conversationId = persona.getConversationId();
+    if (inGame) {
+      // replay any conversation recovered from a previous run
+      List<ChatMessage> restored = SessionJournal.getInstance().getConversation(conversationId);
+      for (ChatMessage message : restored) {
+        request.addMessage(message);
+      }
+      if (restored.isEmpty()) {
+        // predict likely openers while the player is still reading the case
+        SpeculativeOpeners.getInstance().register(persona, request.copy());
+      }
+    }
+    if (!history.contains(conversationId, "system", GlobalChatHistory.PROMPT_INITIALISED)) {
+      // a session restored after a crash already has this entry in the recovered history
+      history.add(conversationId, "system", GlobalChatHistory.PROMPT_INITIALISED);
+    }
+
+    session = new PersonaSession(this, persona, request);
+    sessions.put(persona, session);
+    return session;
+  }
+
+  /**
+   * Sets where the time left in the current phase is read from. Each turn must finish within it.
+   *
+   * @param remainingSeconds supplies the seconds left, or {@link Integer#MAX_VALUE} for no limit
+   */
+  public void setRemainingTime(IntSupplier remainingSeconds) {
+    this.remainingSeconds = remainingSeconds;
+  }
+
+  /**
+   * Sets the persona the player is looking at. Its turns go to the proxy before all others.
+   *
+   * @param persona the persona in focus, or null if the player is in no persona's room
+   */
+  public void setFocus(Persona persona) {
+    this.focus = persona;
+  }
+
+  /**
+   * Returns whether the player is looking at the given persona, so only its replies are voiced.
+   *
+   * @param persona the persona to check
+   * @return true if the persona is in focus
+   */
+  public boolean isInFocus(Persona persona) {
+    return persona != null && persona == focus;
+  }
+
+  /** Cancels every turn in flight, e.g. when the phase ends and no one will read the replies. */
+  public synchronized void cancelAll() {
+    for (PersonaSession session : sessions.values()) {
+      session.cancel();
+    }
+  }
+
+  /** Cancels the turns in flight and stops accepting new ones. */
+  public void shutdown() {
+    cancelAll();
+    executor.shutdownNow();
+  }
+
+  GlobalChatHistory getHistory() {
+    return history;
+  }
+
+  boolean isInGame() {
+    return inGame;
+  }
+
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  Priority getPriority(Persona persona) {
+    return persona == focus ? Priority.FOREGROUND : Priority.BACKGROUND_TURN;
+  }
+
+  long getDeadlineMillis() {
+    int seconds = remainingSeconds.getAsInt();
+    if (seconds == Integer.MAX_VALUE) {
+      return 0; // no deadline
+    }
+    return System.currentTimeMillis() + Math.max(seconds, 0) * 1000L;
+  }
+
+  private static String getSystemPrompt(Persona persona) {
+    Map<String, String> map = new HashMap<>();
+    map.put("role", PromptEngineering.loadTemplate(persona.getPromptId()));
+    return PromptEngineering.getPrompt("context.txt", map);
+  }
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.PromptMinifier;
 
 /**
  * GlobalChatHistory stores a shared cross-controller conversation history. It reuses the existing
@@ -13,18 +14,50 @@ import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
  *
  * <p>Controllers can then build a summarised context string (e.g. via buildExternalContext) that
  * they inject as a system message ahead of their own user input.
+ *
+ * <p>The game's history is journaled so it survives a crash. Trials run outside the game create
+ * their own, unjournaled history.
  */
 public class GlobalChatHistory {
 
-  private static final GlobalChatHistory INSTANCE = new GlobalChatHistory();
-  private static final int MAX_HISTORY = 500; // simple cap
+  /** The entry added when a persona's prompt is set up. */
+  public static final String PROMPT_INITIALISED = "(persona prompt initialised)";
+
+  private static final GlobalChatHistory INSTANCE = new GlobalChatHistory(true);
+  private static final String CONTEXT_HEADER =
+      "Relevant prior dialogues from other roles (truncated):\n";
+  private static final String NO_CONTEXT = "No prior external conversations.";
+  static final int MAX_HISTORY = 500; // simple cap
 
-  private GlobalChatHistory() {}
+  private final boolean journaled;
+
+  /** Creates an empty history that is not journaled, for a trial run outside the game. */
+  public GlobalChatHistory() {
+    this(false);
+  }
+
+  private GlobalChatHistory(boolean journaled) {
+    this.journaled = journaled;
+  }
 
   public static GlobalChatHistory getInstance() {
     return INSTANCE;
   }
 
+  /**
+   * Creates a minifier that knows the labels used by {@link #buildExternalContext}, shortening the
+   * context header and persona labels to stable abbreviations.
+   */
+  public static PromptMinifier createContextMinifier() {
+    PromptMinifier minifier = new PromptMinifier();
+    minifier.addAbbreviation(CONTEXT_HEADER, "Other roles:\n");
+    for (Persona persona : Persona.values()) {
+      minifier.addAbbreviation(
+          "[" + persona.getConversationId() + " ", "[" + persona.getAbbreviation() + " ");
+    }
+    return minifier;
+  }
+
   private final List<ChatMessage> history = new ArrayList<>();
 
   /** Adds a namespaced message to global history. */
@@ -33,6 +66,26 @@ public class GlobalChatHistory {
     if (history.size() > MAX_HISTORY) {
       history.remove(0);
     }
+    if (journaled) {
+      SessionJournal.getInstance().appendHistory(conversationId, baseRole, content);
+    }
+  }
+
+  /** Replaces the history with entries recovered by the {@link SessionJournal}. */
+  synchronized void restore(List<ChatMessage> restored) {
+    history.clear();
+    history.addAll(restored);
+  }
+
+  /** Returns whether the history holds the given entry. */
+  public synchronized boolean contains(String conversationId, String baseRole, String content) {
+    String role = conversationId + ":" + baseRole;
+    for (ChatMessage message : history) {
+      if (message.getRole().equals(role) && message.getContent().equals(content)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /** Snapshot of all messages. */
@@ -55,12 +108,12 @@ public class GlobalChatHistory {
       }
     }
     if (filtered.isEmpty()) {
-      return "No prior external conversations.";
+      return NO_CONTEXT;
     }
 
     // builds the chat history and returns
     StringBuilder sb = new StringBuilder();
-    sb.append("Relevant prior dialogues from other roles (truncated):\n");
+    sb.append(CONTEXT_HEADER);
     for (ChatMessage m : filtered) {
       String role = m.getRole();
       int idx = role.indexOf(':');
@@ -76,4 +129,23 @@ public class GlobalChatHistory {
     }
     return sb.toString();
   }
+
+  /**
+   * Reduces an external context to the dialogue in it, leaving out the entries added as personas
+   * are set up. Replies made with the same dialogue depend on the same things, wherever the setup
+   * entries fell.
+   *
+   * @param externalContext a context built by {@link #buildExternalContext}
+   * @return the context without its setup entries
+   */
+  static String withoutSetupEntries(String externalContext) {
+    StringBuilder sb = new StringBuilder();
+    for (String line : externalContext.split("\n")) {
+      if (!line.endsWith(" system] " + PROMPT_INITIALISED)) {
+        sb.append(line).append('\n');
+      }
+    }
+    String dialogue = sb.toString();
+    return dialogue.equals(CONTEXT_HEADER) ? NO_CONTEXT + "\n" : dialogue;
+  }
 }
@@ -0,0 +1,50 @@
+package nz.ac.auckland.se206.chat;
+
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+
+/**
+ * The characters the player can question. The conversation id is the label a persona's messages
+ * carry in {@link GlobalChatHistory}; the abbreviation is a shorter label that still matches how
+ * the persona is named in the shared context prompt. Each persona speaks its replies in its own
+ * voice, and samples them with its own top-p.
+ */
+public enum Persona {
+  STREET_ASSIST("StreetAssist Unit", "SA-42", "patrol.txt", Voice.GOOGLE_EN_US_NEURAL2_D, 0.5),
+  KENJI_TANAKA("Kenji Tanaka", "Kenji", "delivery.txt", Voice.GOOGLE_EN_AU_WAVENET_B, 0.4),
+  SENTINEL("Sentinel Unit", "S-19", "security.txt", Voice.GOOGLE_EN_GB_NEURAL2_B, 0.5);
+
+  private final String conversationId;
+  private final String abbreviation;
+  private final String promptId;
+  private final Voice voice;
+  private final double topP;
+
+  Persona(
+      String conversationId, String abbreviation, String promptId, Voice voice, double topP) {
+    this.conversationId = conversationId;
+    this.abbreviation = abbreviation;
+    this.promptId = promptId;
+    this.voice = voice;
+    this.topP = topP;
+  }
+
+  public String getConversationId() {
+    return conversationId;
+  }
+
+  public String getAbbreviation() {
+    return abbreviation;
+  }
+
+  public String getPromptId() {
+    return promptId;
+  }
+
+  public Voice getVoice() {
+    return voice;
+  }
+
+  public double getTopP() {
+    return topP;
+  }
+}
@@ -0,0 +1,408 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.Choice;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One persona's conversation with the player. A session holds the persona's chat request and runs
+ * at most one turn at a time on its {@link ChatEngine}. A turn is sent on a fork of the
+ * conversation and committed in one step once the reply arrives, so a failed turn leaves no trace
+ * in the conversation or the shared history, and readers never see half a turn. A turn that runs
+ * past the trial's deadline, or is cancelled because the trial moved on, is dropped the same way.
+ * Messages sent while a turn is in flight are held back and sent together as a single turn once
+ * the reply lands, so the player never has to wait to type a follow-up. Views do not drive the
+ * request themselves; they subscribe to the session and are told about each message a turn adds,
+ * when a turn starts and finishes, and when one fails.
+ */
+public class PersonaSession {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PersonaSession.class);
+
+  /** Receives a session's events. */
+  public interface Listener {
+
+    /**
+     * Called for each message the player sends, as soon as it is sent, and for each reply that
+     * arrives. Messages restored when the session was created are not reported.
+     *
+     * @param message the message added
+     */
+    void onMessage(ChatMessage message);
+
+    /**
+     * Called when a turn fails or is cancelled and is not sent again. The player's messages it
+     * carried were reported when sent but are not part of the conversation, so a view showing
+     * them should be rebuilt from {@link PersonaSession#getTranscript()}.
+     */
+    void onTurnFailed();
+
+    /**
+     * Called when a turn starts and again when the last queued turn finishes, whether or not it
+     * succeeded.
+     *
+     * @param busy true while a turn is in flight
+     */
+    void onBusyChanged(boolean busy);
+  }
+
+  private static class Subscription {
+    private final Listener listener;
+    private final Executor executor;
+
+    private Subscription(Listener listener, Executor executor) {
+      this.listener = listener;
+      this.executor = executor;
+    }
+  }
+
+  private final ChatEngine engine;
+  private final Persona persona;
+  private final String conversationId;
+  private final ChatCompletionRequest request;
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private volatile boolean busy; // only changed while holding this session's lock
+
+  // The player's messages carried by the turn in flight, until it is committed
+  private final List<String> inFlight = new ArrayList<>();
+
+  // Messages sent while a turn was in flight, and the reply they will share
+  private final List<String> typedAhead = new ArrayList<>();
+  private CompletableFuture<ChatMessage> typedAheadReply;
+
+  // The turn in flight, so that it can be cancelled from another thread
+  private volatile boolean cancelled;
+  private volatile ChatCompletionRequest turnRequest;
+  private volatile TypingSpeculator.Speculation turnSpeculation;
+
+  PersonaSession(ChatEngine engine, Persona persona, ChatCompletionRequest request) {
+    this.engine = engine;
+    this.persona = persona;
+    this.conversationId = persona.getConversationId();
+    this.request = request;
+  }
+
+  public Persona getPersona() {
+    return persona;
+  }
+
+  ChatEngine getEngine() {
+    return engine;
+  }
+
+  /**
+   * Returns the persona's live request, e.g. for a {@link TypingSpeculator} to fork. Callers must
+   * not add messages to it.
+   *
+   * @return the chat request
+   */
+  public ChatCompletionRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * Returns the conversation so far, including the persona prompt.
+   *
+   * @return an unmodifiable list of the messages in the order they were added
+   */
+  public List<ChatMessage> getMessages() {
+    return request.getMessages();
+  }
+
+  /**
+   * Returns a snapshot of the conversation, e.g. to fork a speculative turn from. Taking one costs
+   * nothing, and later turns do not change it.
+   *
+   * @return the conversation as it is now
+   */
+  public Conversation getConversation() {
+    return request.getConversation();
+  }
+
+  /**
+   * Returns the conversation so far followed by the player's messages still waiting for a reply,
+   * i.e. everything a view should show.
+   *
+   * @return a new list of the messages in the order they were sent
+   */
+  public synchronized List<ChatMessage> getTranscript() {
+    List<ChatMessage> transcript = new ArrayList<>(request.getMessages());
+    for (String message : inFlight) {
+      transcript.add(new ChatMessage("user", message));
+    }
+    for (String message : typedAhead) {
+      transcript.add(new ChatMessage("user", message));
+    }
+    return transcript;
+  }
+
+  public boolean isBusy() {
+    return busy;
+  }
+
+  /**
+   * Subscribes to this session's events.
+   *
+   * @param listener the listener
+   * @param executor runs the listener's callbacks, e.g. {@code Platform::runLater} for a view
+   */
+  public void addListener(Listener listener, Executor executor) {
+    subscriptions.add(new Subscription(listener, executor));
+  }
+
+  /**
+   * Unsubscribes a listener added with {@link #addListener}.
+   *
+   * @param listener the listener
+   */
+  public void removeListener(Listener listener) {
+    subscriptions.removeIf(subscription -> subscription.listener == listener);
+  }
+
+  /**
+   * Sends the player's message. If no turn is in flight, a turn starts for it at once. Otherwise
+   * it waits, together with anything else sent in the meantime, and all of them go out as one
+   * combined turn when the reply in flight lands. Should the turn in flight fail instead, its own
+   * message leads the combined turn.
+   *
+   * @param message the player's message
+   * @param speculation a completion already started for this message, or null
+   * @return the reply to the turn carrying this message, completed with null if that turn failed
+   */
+  public CompletableFuture<ChatMessage> send(
+      String message, TypingSpeculator.Speculation speculation) {
+    ChatMessage msg = new ChatMessage("user", message);
+    CompletableFuture<ChatMessage> reply;
+    boolean queued;
+    synchronized (this) {
+      queued = busy;
+      if (queued) {
+        typedAhead.add(message);
+        if (typedAheadReply == null) {
+          typedAheadReply = new CompletableFuture<>();
+        }
+        reply = typedAheadReply;
+      } else {
+        busy = true;
+        cancelled = false;
+        turnSpeculation = speculation;
+        inFlight.add(message);
+        reply = new CompletableFuture<>();
+      }
+    }
+
+    if (queued) {
+      if (speculation != null) {
+        speculation.cancel(); // it assumed the turn in flight had not happened
+      }
+    } else {
+      publishBusy(true);
+    }
+    publishMessage(msg); // the shared history only gets it once its turn is committed
+    if (!queued) {
+      startTurn(msg, speculation, reply);
+    }
+    return reply;
+  }
+
+  private void startTurn(
+      ChatMessage msg,
+      TypingSpeculator.Speculation speculation,
+      CompletableFuture<ChatMessage> reply) {
+    CompletableFuture.supplyAsync(() -> runTurn(msg, speculation), engine.getExecutor())
+        .whenComplete(
+            (result, error) -> {
+              if (error != null) {
+                LOG.error(conversationId + " turn failed unexpectedly", error);
+              }
+              finishTurn(error == null ? result : null, reply);
+            });
+  }
+
+  /**
+   * Sends the messages typed ahead as the next turn, or goes idle if there are none. If the turn
+   * failed without being cancelled, its messages go first in the next turn, as the ones typed
+   * ahead may follow on from them.
+   */
+  private void finishTurn(ChatMessage result, CompletableFuture<ChatMessage> reply) {
+    boolean failed = result == null;
+    boolean retried = false;
+    String combined = null;
+    CompletableFuture<ChatMessage> nextReply;
+    synchronized (this) {
+      turnRequest = null;
+      turnSpeculation = null;
+      nextReply = typedAheadReply;
+      typedAheadReply = null;
+      List<String> next = new ArrayList<>();
+      if (!typedAhead.isEmpty() && !cancelled) {
+        retried = failed && !inFlight.isEmpty();
+        if (retried) {
+          next.addAll(inFlight);
+        }
+        next.addAll(typedAhead);
+      }
+      inFlight.clear(); // already empty if the turn was committed
+      typedAhead.clear();
+      if (next.isEmpty()) {
+        busy = false;
+      } else {
+        combined = String.join("\n", next); // read naturally as one longer message
+        inFlight.addAll(next);
+      }
+    }
+
+    if (retried) {
+      nextReply.whenComplete((nextResult, error) -> reply.complete(nextResult));
+    } else {
+      reply.complete(result);
+      if (failed) {
+        publishTurnFailed();
+      }
+    }
+    if (combined != null) {
+      startTurn(new ChatMessage("user", combined), null, nextReply);
+      return;
+    }
+    if (nextReply != null) {
+      nextReply.complete(null); // the queued messages were cancelled with the turn before them
+    }
+    publishBusy(false);
+  }
+
+  /**
+   * Cancels the turn in flight, if any, aborting its HTTP exchange, and drops any messages queued
+   * behind it. The turn is not committed and its reply, if one still arrives, is not reported.
+   */
+  public void cancel() {
+    cancelled = true;
+    ChatCompletionRequest turn = turnRequest;
+    if (turn != null) {
+      turn.abort();
+    }
+    TypingSpeculator.Speculation speculation = turnSpeculation;
+    if (speculation != null) {
+      speculation.cancel();
+    }
+  }
+
+  private ChatMessage runTurn(ChatMessage msg, TypingSpeculator.Speculation speculation) {
+    // Before executing, refresh the per-turn external context (other roles). It is volatile, so it
+    // is sent after the dialogue and the persona prompt stays a cacheable prefix
+    String externalContext = engine.getHistory().buildExternalContext(conversationId, 25);
+    Conversation base = request.getConversation();
+    Conversation asked = base.append(msg);
+    ChatCompletionRequest turn = request.fork(asked);
+    turn.setVolatileContext("system", externalContext);
+    turn.setPriority(() -> engine.getPriority(persona));
+    long deadlineMillis = engine.getDeadlineMillis();
+    if (deadlineMillis > 0) {
+      turn.setDeadline(deadlineMillis);
+    }
+    turnRequest = turn;
+    if (cancelled) {
+      turn.abort(); // cancelled before the fork existed
+    }
+
+    boolean inGame = engine.isInGame();
+    try {
+      ChatMessage assistantMessage =
+          inGame
+              ? SpeculativeOpeners.getInstance().take(persona, msg.getContent(), externalContext)
+              : null;
+      if (assistantMessage == null && inGame) {
+        // a near-duplicate of the question just answered, asked under the same context
+        assistantMessage =
+            ResponseCache.getInstance().lookup(persona, msg.getContent(), externalContext, base);
+      }
+      if (assistantMessage == null) {
+        ChatCompletionResult chatCompletionResult =
+            speculation == null ? null : speculation.await();
+        ChatCompletionRequest sent = chatCompletionResult == null ? turn : speculation.getRequest();
+        if (chatCompletionResult == null) {
+          chatCompletionResult = turn.execute();
+        }
+        Choice result = chatCompletionResult.getChoices().iterator().next();
+        assistantMessage = result.getChatMessage();
+        if (inGame) {
+          logUsage(chatCompletionResult, sent);
+        }
+      } else if (speculation != null) {
+        speculation.cancel();
+      }
+      if (cancelled) {
+        LOG.debug("{} turn cancelled, so its reply was discarded", conversationId);
+        return null;
+      }
+      Conversation answered = asked.append(assistantMessage);
+      synchronized (this) {
+        // together with clearing inFlight, so a transcript never shows the message twice
+        if (!request.commit(base, answered)) {
+          LOG.warn("{} changed during a turn, so its reply was discarded", conversationId);
+          return null;
+        }
+        inFlight.clear();
+      }
+
+      if (inGame) {
+        // journal the completed turn so it survives a restart
+        SessionJournal journal = SessionJournal.getInstance();
+        journal.appendTurn(conversationId, msg);
+        journal.appendTurn(conversationId, assistantMessage);
+        ResponseCache.getInstance()
+            .store(persona, msg.getContent(), externalContext, answered, assistantMessage);
+      }
+
+      engine.getHistory().add(conversationId, msg.getRole(), msg.getContent());
+      engine
+          .getHistory()
+          .add(conversationId, assistantMessage.getRole(), assistantMessage.getContent());
+      publishMessage(assistantMessage);
+      return assistantMessage;
+    } catch (ApiProxyException e) {
+      if (cancelled) {
+        LOG.debug("{} turn cancelled", conversationId);
+      } else {
+        LOG.warn("{} turn failed: {}", conversationId, e.getMessage());
+      }
+      return null;
+    }
+  }
+
+  private void logUsage(ChatCompletionResult chatCompletionResult, ChatCompletionRequest turn) {
+    LOG.debug(
+        "{} cached prompt tokens: {}/{}, saved by minification: {}",
+        conversationId,
+        chatCompletionResult.getUsageCachedTokens(),
+        chatCompletionResult.getUsagePromptTokens(),
+        turn.getLastMinificationReport().getTokensSaved());
+  }
+
+  private void publishMessage(ChatMessage message) {
+    for (Subscription subscription : subscriptions) {
+      subscription.executor.execute(() -> subscription.listener.onMessage(message));
+    }
+  }
+
+  private void publishTurnFailed() {
+    for (Subscription subscription : subscriptions) {
+      subscription.executor.execute(subscription.listener::onTurnFailed);
+    }
+  }
+
+  private void publishBusy(boolean value) {
+    for (Subscription subscription : subscriptions) {
+      subscription.executor.execute(() -> subscription.listener.onBusyChanged(value));
+    }
+  }
+}
@@ -0,0 +1,350 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
+
+/**
+ * ResponseCache serves a stored reply when a player asks a persona something they just asked,
+ * even when worded slightly differently ("why did you push him" vs "Why did you push Kenji?").
+ *
+ * <p>Each message is reduced to a MinHash signature over its character trigrams and words, whose
+ * matching slots estimate the Jaccard similarity of the two messages. Similarity alone cannot tell
+ * a rewording from a swapped word ("why did you push him" vs "why didn't you push him" is closer
+ * than the rewording above), so the messages must also share the same content words, where "n't"
+ * counts as "not". Persona names stay distinct, so asking about Kenji never matches asking about
+ * the Sentinel, but a pronoun matches a name it can stand for ("him" for Kenji). A stored reply is
+ * only served when these checks pass, the persona's external context is unchanged since the reply
+ * was made, and the persona's own conversation is still the one that reply left it in, so answers
+ * never ignore what happened in other rooms or what the player has said since. Everything runs
+ * locally with no external services.
+ */
+public class ResponseCache {
+
+  private static final ResponseCache INSTANCE = new ResponseCache();
+
+  private static final int SIGNATURE_SIZE = 64;
+  private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+
+  // Words that carry no meaning of their own
+  private static final Set<String> FILLER_WORDS =
+      Set.of(
+          "a", "an", "the", "do", "does", "did", "is", "are", "was", "were", "be", "been", "you",
+          "your", "me", "my", "to", "of", "so", "that", "this", "just", "really", "please");
+  // The personas each word of a persona's name can mean, e.g. "unit" is any of the robots
+  private static final Map<String, Set<Persona>> NAMES = new HashMap<>();
+  // Each pronoun's first form, and the personas that form can stand for
+  private static final Map<String, String> PRONOUNS = new HashMap<>();
+  private static final Map<String, Set<Persona>> PRONOUN_REFERENTS = new HashMap<>();
+
+  static {
+    SplittableRandom random = new SplittableRandom(206);
+    for (int i = 0; i < SEEDS.length; i++) {
+      SEEDS[i] = random.nextLong();
+    }
+    for (Persona persona : Persona.values()) {
+      for (String word : words(persona.getConversationId())) {
+        NAMES.computeIfAbsent(word, w -> EnumSet.noneOf(Persona.class)).add(persona);
+      }
+    }
+    addPronouns(EnumSet.of(Persona.KENJI_TANAKA), "he", "him", "his");
+    addPronouns(EnumSet.noneOf(Persona.class), "she", "her");
+    addPronouns(EnumSet.allOf(Persona.class), "they", "them", "their");
+  }
+
+  private static void addPronouns(Set<Persona> referents, String... forms) {
+    for (String form : forms) {
+      PRONOUNS.put(form, forms[0]);
+    }
+    PRONOUN_REFERENTS.put(forms[0], referents);
+  }
+
+  public static ResponseCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * A persona named in a message, or a pronoun that may stand for one. Names are kept as the
+   * personas they can mean; pronouns as their first form.
+   */
+  static class Reference {
+    private final Set<Persona> personas;
+    private final String pronoun;
+
+    private Reference(Set<Persona> personas, String pronoun) {
+      this.personas = personas;
+      this.pronoun = pronoun;
+    }
+
+    /** Returns whether the two references can mean the same persona to the one being asked. */
+    private boolean canMatch(Reference other, Persona asked) {
+      if (pronoun != null && other.pronoun != null) {
+        return pronoun.equals(other.pronoun);
+      }
+      if (pronoun == null && other.pronoun == null) {
+        return personas.equals(other.personas);
+      }
+      Reference name = pronoun == null ? this : other;
+      Set<Persona> referents = EnumSet.noneOf(Persona.class);
+      referents.addAll(PRONOUN_REFERENTS.get(pronoun == null ? other.pronoun : pronoun));
+      referents.remove(asked); // the persona being asked is "you"
+      return referents.containsAll(name.personas);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Reference
+          && personas.equals(((Reference) other).personas)
+          && Objects.equals(pronoun, ((Reference) other).pronoun);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(personas, pronoun);
+    }
+  }
+
+  /** A cached reply with the signature of the message and the state it answered. */
+  private static class Entry {
+    private final int[] signature;
+    private final Set<String> contentWords;
+    private final List<Reference> references;
+    private final long contextFingerprint;
+    private final Conversation conversation;
+    private final ChatMessage reply;
+
+    private Entry(
+        String message, long contextFingerprint, Conversation conversation, ChatMessage reply) {
+      this.signature = signature(message);
+      this.contentWords = contentWords(message);
+      this.references = references(message);
+      this.contextFingerprint = contextFingerprint;
+      this.conversation = conversation;
+      this.reply = reply;
+    }
+  }
+
+  // Only the latest reply of each persona, as earlier ones were made for earlier conversations
+  private final Map<Persona, Entry> entries = new EnumMap<>(Persona.class);
+  // "why did you push him" vs "Why did you push Kenji?" has a Jaccard similarity of about 0.63
+  private double threshold = 0.5;
+  private int lookups;
+  private int hits;
+
+  ResponseCache() {}
+
+  /**
+   * Sets the estimated similarity a message needs to reach to be served from the cache.
+   *
+   * @param threshold a similarity between 0 (anything matches) and 1 (near-identical only)
+   */
+  public synchronized void setThreshold(double threshold) {
+    if (threshold < 0 || threshold > 1) {
+      throw new IllegalArgumentException(
+          "threshold must be between 0 and 1 inclusive, but was given " + threshold);
+    }
+    this.threshold = threshold;
+  }
+
+  /**
+   * Looks up a reply to a message similar to the given one.
+   *
+   * @param persona the persona being asked
+   * @param message the player's message
+   * @param externalContext the external context the real request would be sent with
+   * @param conversation the persona's conversation the message would be added to
+   * @return the cached reply, or null on a miss
+   */
+  public synchronized ChatMessage lookup(
+      Persona persona, String message, String externalContext, Conversation conversation) {
+    lookups++;
+    Entry entry = entries.get(persona);
+    if (entry == null
+        || entry.conversation != conversation
+        || entry.contextFingerprint != fingerprint(externalContext)
+        || similarity(signature(message), entry.signature) < threshold
+        || !entry.contentWords.equals(contentWords(message))
+        || !canMatch(entry.references, references(message), persona)) {
+      return null;
+    }
+    hits++;
+    return entry.reply;
+  }
+
+  /**
+   * Stores a reply for near-duplicate messages asked before the persona's conversation moves on.
+   * It replaces the persona's previous reply, which was made for an earlier conversation.
+   *
+   * @param persona the persona that replied
+   * @param message the player's message
+   * @param externalContext the external context the request was sent with
+   * @param conversation the persona's conversation once the message and reply were added
+   * @param reply the persona's reply
+   */
+  public synchronized void store(
+      Persona persona,
+      String message,
+      String externalContext,
+      Conversation conversation,
+      ChatMessage reply) {
+    entries.put(persona, new Entry(message, fingerprint(externalContext), conversation, reply));
+  }
+
+  public synchronized double getHitRate() {
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Summarises how many messages were answered from the cache.
+   *
+   * @return a one-line report
+   */
+  public synchronized String report() {
+    return String.format(
+        "Response cache: %d/%d messages served (%.0f%%)", hits, lookups, getHitRate() * 100);
+  }
+
+  /** Computes the MinHash signature of a message's character trigrams and words. */
+  static int[] signature(String message) {
+    String normalized = message.toLowerCase().replaceAll("[^a-z0-9]+", " ").trim();
+    Set<String> shingles = new HashSet<>();
+    for (String word : normalized.split(" ")) {
+      if (!word.isEmpty()) {
+        shingles.add("w:" + word);
+      }
+    }
+    String padded = " " + normalized + " ";
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      shingles.add(padded.substring(i, i + 3));
+    }
+
+    int[] signature = new int[SIGNATURE_SIZE];
+    Arrays.fill(signature, Integer.MAX_VALUE);
+    for (String shingle : shingles) {
+      long hash = shingle.hashCode();
+      for (int i = 0; i < SIGNATURE_SIZE; i++) {
+        int value = (int) mix(hash ^ SEEDS[i]);
+        if (value < signature[i]) {
+          signature[i] = value;
+        }
+      }
+    }
+    return signature;
+  }
+
+  /** Finds the words of a message that change its meaning, apart from names and pronouns. */
+  static Set<String> contentWords(String message) {
+    Set<String> contentWords = new HashSet<>();
+    for (String word : words(message.toLowerCase(Locale.ROOT).replace("n't", " not"))) {
+      if (NAMES.containsKey(word) || PRONOUNS.containsKey(word)) {
+        continue; // compared as references
+      }
+      if (word.length() > 1 && !FILLER_WORDS.contains(word)) {
+        contentWords.add(word); // single letters are left over from contractions such as "it's"
+      }
+    }
+    return contentWords;
+  }
+
+  /**
+   * Finds the personas a message names and the pronouns in it. A name word that could mean several
+   * personas is dropped when another word of the message narrows it down ("Sentinel Unit").
+   */
+  static List<Reference> references(String message) {
+    List<Set<Persona>> names = new ArrayList<>();
+    Set<String> pronouns = new LinkedHashSet<>();
+    for (String word : words(message)) {
+      if (NAMES.containsKey(word) && !names.contains(NAMES.get(word))) {
+        names.add(NAMES.get(word));
+      } else if (PRONOUNS.containsKey(word)) {
+        pronouns.add(PRONOUNS.get(word));
+      }
+    }
+    List<Reference> references = new ArrayList<>();
+    for (Set<Persona> name : names) {
+      boolean narrowed = false;
+      for (Set<Persona> other : names) {
+        narrowed |= other != name && name.containsAll(other);
+      }
+      if (!narrowed) {
+        references.add(new Reference(name, null));
+      }
+    }
+    for (String pronoun : pronouns) {
+      references.add(new Reference(EnumSet.noneOf(Persona.class), pronoun));
+    }
+    return references;
+  }
+
+  /** Returns whether every reference of one message can be paired with one of the other's. */
+  static boolean canMatch(List<Reference> a, List<Reference> b, Persona asked) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    if (a.isEmpty()) {
+      return true;
+    }
+    Reference first = a.get(0);
+    for (int i = 0; i < b.size(); i++) {
+      if (first.canMatch(b.get(i), asked)) {
+        List<Reference> rest = new ArrayList<>(b);
+        rest.remove(i);
+        if (canMatch(a.subList(1, a.size()), rest, asked)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static List<String> words(String text) {
+    List<String> words = new ArrayList<>();
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /** Estimates the Jaccard similarity of the shingle sets behind two signatures. */
+  static double similarity(int[] a, int[] b) {
+    int same = 0;
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      if (a[i] == b[i]) {
+        same++;
+      }
+    }
+    return (double) same / SIGNATURE_SIZE;
+  }
+
+  private static long fingerprint(String externalContext) {
+    long hash = 1125899906842597L;
+    for (int i = 0; i < externalContext.length(); i++) {
+      hash = 31 * hash + externalContext.charAt(i);
+    }
+    return mix(hash);
+  }
+
+  // 64-bit finaliser from MurmurHash3, spreading every input bit over the output
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb53fe1a85ec3L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
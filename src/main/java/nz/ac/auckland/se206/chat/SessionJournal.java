@@ -0,0 +1,462 @@
+package nz.ac.auckland.se206.chat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SessionJournal keeps a crash-safe record of the running trial so it can be resumed after a
+ * restart. Every chat event is appended to a memory-mapped log; every {@link #SNAPSHOT_INTERVAL}
+ * events the accumulated state is written to a compact binary snapshot on a background thread. A
+ * snapshot records the epoch of the log it was taken from and how far into that log it reaches, so
+ * recovery replays only the records after that point. The log itself is never rewritten while it
+ * is live; it is emptied, under a new epoch, only once a snapshot of everything in it is on disk.
+ * That happens when a snapshot finds more than {@link #COMPACT_BYTES} of the log covered, so the
+ * mapping stays at its initial size however long the session runs.
+ *
+ * <p>Two kinds of events are recorded: entries of the {@link GlobalChatHistory} and the messages of
+ * each persona's own ChatCompletionRequest. Log records are laid out as {@code [int length][byte
+ * kind][string conversationId][string role][string content]}, each string as {@code [int
+ * length][utf-8 bytes]}. A record is committed by writing its length last and the slot after the
+ * newest record is always zero, so a torn write is never replayed.
+ */
+public class SessionJournal {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SessionJournal.class);
+  private static final SessionJournal INSTANCE = new SessionJournal(new File("session"));
+
+  private static final int MAGIC = 0x434f4332; // "COC2"
+  private static final int HEADER_BYTES = 12; // magic + epoch
+  private static final int INITIAL_CAPACITY = 1 << 20;
+  private static final int SNAPSHOT_INTERVAL = 64;
+  private static final int COMPACT_BYTES = INITIAL_CAPACITY / 2;
+  private static final byte KIND_HISTORY = 1;
+  private static final byte KIND_TURN = 2;
+
+  public static SessionJournal getInstance() {
+    return INSTANCE;
+  }
+
+  private final Path journalPath;
+  private final Path snapshotPath;
+  private final ExecutorService background =
+      Executors.newSingleThreadExecutor(
+          r -> {
+            Thread thread = new Thread(r, "session-journal");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // In-memory mirror of everything the log and snapshot describe
+  private final ArrayDeque<ChatMessage> history = new ArrayDeque<>();
+  private final Map<String, List<ChatMessage>> conversations = new LinkedHashMap<>();
+
+  private FileChannel channel;
+  private MappedByteBuffer log;
+  private long epoch;
+  private int position;
+  private int eventsSinceSnapshot;
+  private boolean snapshotPending;
+  private boolean opened;
+  private boolean disabled;
+
+  SessionJournal(File directory) {
+    this.journalPath = new File(directory, "journal.bin").toPath();
+    this.snapshotPath = new File(directory, "snapshot.bin").toPath();
+  }
+
+  /**
+   * Loads the previous session (if any) and pushes its shared history back into {@link
+   * GlobalChatHistory}. Persona conversations are kept here until each controller asks for them
+   * through {@link #getConversation(String)}.
+   */
+  public void restore() {
+    List<ChatMessage> restored;
+    synchronized (this) {
+      if (!ensureOpen()) {
+        return;
+      }
+      restored = new ArrayList<>(history);
+    }
+    // Called outside our lock, as GlobalChatHistory calls back into the journal holding its own
+    GlobalChatHistory.getInstance().restore(restored);
+  }
+
+  /** Records an entry added to the shared {@link GlobalChatHistory}. */
+  public void appendHistory(String conversationId, String baseRole, String content) {
+    append(KIND_HISTORY, conversationId, baseRole, content);
+  }
+
+  /** Records a message added to the given persona's own chat request. */
+  public void appendTurn(String conversationId, ChatMessage message) {
+    append(KIND_TURN, conversationId, message.getRole(), message.getContent());
+  }
+
+  /**
+   * Returns the restored request messages of a persona, in the order they were sent, excluding the
+   * persona prompt itself (which is rebuilt from the prompt files).
+   */
+  public synchronized List<ChatMessage> getConversation(String conversationId) {
+    if (!ensureOpen()) {
+      return Collections.emptyList();
+    }
+    List<ChatMessage> messages = conversations.get(conversationId);
+    return messages == null ? Collections.emptyList() : new ArrayList<>(messages);
+  }
+
+  /** Returns the restored and recorded entries of the shared history, oldest first. */
+  synchronized List<ChatMessage> getHistory() {
+    if (!ensureOpen()) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<>(history);
+  }
+
+  /**
+   * Writes a plain-text transcript of every persona conversation to the given file. The state is
+   * copied under the lock and written on the journal's background thread, so callers on the chat
+   * path are not held up by disk I/O.
+   *
+   * @param target the file to write
+   * @return a future completed with the target once the transcript is on disk
+   */
+  public CompletableFuture<Path> exportTranscript(Path target) {
+    Map<String, List<ChatMessage>> copy;
+    synchronized (this) {
+      ensureOpen();
+      copy = copyConversations();
+    }
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<ChatMessage>> entry : copy.entrySet()) {
+              writer.write("## " + entry.getKey());
+              writer.newLine();
+              for (ChatMessage message : entry.getValue()) {
+                writer.write(message.getRole() + ": " + message.getContent());
+                writer.newLine();
+              }
+              writer.newLine();
+            }
+            return target;
+          } catch (IOException e) {
+            throw new IllegalStateException("Unable to export transcript to " + target, e);
+          }
+        },
+        background);
+  }
+
+  /** Forgets the current session, e.g. once the trial is over, so the next launch starts fresh. */
+  public void discard() {
+    synchronized (this) {
+      if (!ensureOpen()) {
+        return;
+      }
+      history.clear();
+      conversations.clear();
+    }
+    // Queued behind any pending snapshot so a stale one can never overwrite the empty state
+    background.execute(
+        () -> {
+          synchronized (this) {
+            try {
+              checkpoint();
+            } catch (IOException e) {
+              LOG.error("Unable to discard the session journal", e);
+              disabled = true;
+            }
+          }
+        });
+  }
+
+  private void append(byte kind, String conversationId, String role, String content) {
+    byte[] conversation = conversationId.getBytes(StandardCharsets.UTF_8);
+    byte[] roleBytes = role.getBytes(StandardCharsets.UTF_8);
+    byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+    int length = 1 + 12 + conversation.length + roleBytes.length + contentBytes.length;
+
+    synchronized (this) {
+      if (!ensureOpen()) {
+        return;
+      }
+      try {
+        ensureCapacity(position + 4 + length + 4);
+      } catch (IOException e) {
+        LOG.error("Unable to grow the session journal, so it is disabled", e);
+        disabled = true;
+        return;
+      }
+      int offset = position + 4;
+      log.put(offset++, kind);
+      offset = putString(offset, conversation);
+      offset = putString(offset, roleBytes);
+      offset = putString(offset, contentBytes);
+      log.putInt(offset, 0); // terminator for the next record
+      log.putInt(position, length); // commit
+      position = offset;
+
+      apply(kind, conversationId, role, content);
+      if (++eventsSinceSnapshot >= SNAPSHOT_INTERVAL && !snapshotPending) {
+        scheduleSnapshot();
+      }
+    }
+  }
+
+  private int putString(int offset, byte[] bytes) {
+    log.putInt(offset, bytes.length);
+    log.put(offset + 4, bytes);
+    return offset + 4 + bytes.length;
+  }
+
+  private void apply(byte kind, String conversationId, String role, String content) {
+    if (kind == KIND_HISTORY) {
+      history.addLast(new ChatMessage(conversationId + ":" + role, content));
+      if (history.size() > GlobalChatHistory.MAX_HISTORY) {
+        history.removeFirst();
+      }
+    } else if (kind == KIND_TURN) {
+      conversations
+          .computeIfAbsent(conversationId, id -> new ArrayList<>())
+          .add(new ChatMessage(role, content));
+    }
+  }
+
+  /** Opens the files on first use, replaying any previous session into the mirror. */
+  private boolean ensureOpen() {
+    if (disabled) {
+      return false;
+    }
+    if (opened) {
+      return true;
+    }
+    opened = true;
+    try {
+      Files.createDirectories(journalPath.getParent());
+      load();
+      return true;
+    } catch (IOException e) {
+      LOG.error("Unable to open the session journal, so it is disabled", e);
+      disabled = true;
+      return false;
+    }
+  }
+
+  private void load() throws IOException {
+    long snapshotEpoch = 0; // no snapshot
+    int snapshotOffset = HEADER_BYTES;
+    if (Files.exists(snapshotPath)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+        if (in.readInt() == MAGIC) {
+          snapshotEpoch = in.readLong();
+          snapshotOffset = in.readInt();
+          readSnapshot(in);
+        }
+      }
+    }
+
+    channel =
+        FileChannel.open(
+            journalPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    int capacity = (int) Math.max(INITIAL_CAPACITY, channel.size());
+    log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    position = HEADER_BYTES;
+
+    epoch = snapshotEpoch;
+    if (log.getInt(0) == MAGIC) {
+      long journalEpoch = log.getLong(4);
+      if (snapshotEpoch == 0) {
+        epoch = journalEpoch; // the snapshot is missing, so the whole log is all there is
+        position = replay(HEADER_BYTES);
+      } else if (journalEpoch == snapshotEpoch) {
+        position = replay(snapshotOffset);
+      }
+      // Otherwise the log was being emptied after a checkpoint whose snapshot covers all of it
+    }
+
+    // Fold whatever was replayed into a fresh snapshot so the next run starts from a clean log
+    checkpoint();
+  }
+
+  private int replay(int start) {
+    int offset = start;
+    while (offset + 4 <= log.capacity()) {
+      int length = log.getInt(offset);
+      if (length <= 0 || offset + 4 + length > log.capacity()) {
+        break;
+      }
+      int end = offset + 4 + length;
+      int cursor = offset + 4;
+      byte kind = log.get(cursor++);
+      String[] fields = new String[3];
+      for (int i = 0; i < fields.length; i++) {
+        int size = log.getInt(cursor);
+        if (size < 0 || cursor + 4 + size > end) {
+          return offset; // corrupt record, keep everything before it
+        }
+        byte[] bytes = new byte[size];
+        log.get(cursor + 4, bytes);
+        fields[i] = new String(bytes, StandardCharsets.UTF_8);
+        cursor += 4 + size;
+      }
+      apply(kind, fields[0], fields[1], fields[2]);
+      offset = cursor;
+    }
+    return offset;
+  }
+
+  /**
+   * Writes the whole mirror as a snapshot of the next epoch, then empties the log and moves it to
+   * that epoch. Until the log's epoch changes, the snapshot does not match it and recovery uses
+   * the snapshot alone, which already holds every record in the log.
+   */
+  private void checkpoint() throws IOException {
+    long nextEpoch = epoch + 1;
+    writeSnapshot(new ArrayList<>(history), copyConversations(), nextEpoch, HEADER_BYTES);
+    log.putInt(HEADER_BYTES, 0);
+    log.putInt(0, MAGIC);
+    log.putLong(4, nextEpoch);
+    epoch = nextEpoch;
+    position = HEADER_BYTES;
+    eventsSinceSnapshot = 0;
+  }
+
+  /**
+   * Snapshots the mirror up to the current end of the log, which keeps growing meanwhile. Once the
+   * covered part of the log passes {@link #COMPACT_BYTES}, the snapshot is taken as a checkpoint
+   * instead, which holds the lock while it writes but empties the log for reuse.
+   */
+  private void scheduleSnapshot() {
+    List<ChatMessage> historyCopy = new ArrayList<>(history);
+    Map<String, List<ChatMessage>> conversationCopy = copyConversations();
+    long logEpoch = epoch;
+    int coveredUpTo = position;
+    eventsSinceSnapshot = 0;
+    snapshotPending = true;
+    background.execute(
+        () -> {
+          try {
+            synchronized (this) {
+              if (epoch != logEpoch) {
+                return; // a checkpoint that ran first has already covered it
+              }
+              if (coveredUpTo > COMPACT_BYTES) {
+                checkpoint(); // everything appended since the copy is covered as well
+                return;
+              }
+            }
+            // replaces the previous snapshot atomically, so a crash leaves one or the other
+            writeSnapshot(historyCopy, conversationCopy, logEpoch, coveredUpTo);
+          } catch (IOException e) {
+            LOG.warn("Unable to snapshot the session journal", e);
+          } finally {
+            synchronized (this) {
+              snapshotPending = false;
+            }
+          }
+        });
+  }
+
+  private void writeSnapshot(
+      List<ChatMessage> historyCopy,
+      Map<String, List<ChatMessage>> conversationCopy,
+      long snapshotEpoch,
+      int coveredUpTo)
+      throws IOException {
+    Path temp = snapshotPath.resolveSibling("snapshot.tmp");
+    try (OutputStream file = Files.newOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+      out.writeInt(MAGIC);
+      out.writeLong(snapshotEpoch);
+      out.writeInt(coveredUpTo);
+      out.writeInt(historyCopy.size());
+      for (ChatMessage message : historyCopy) {
+        writeString(out, message.getRole());
+        writeString(out, message.getContent());
+      }
+      out.writeInt(conversationCopy.size());
+      for (Map.Entry<String, List<ChatMessage>> entry : conversationCopy.entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (ChatMessage message : entry.getValue()) {
+          writeString(out, message.getRole());
+          writeString(out, message.getContent());
+        }
+      }
+    }
+    Files.move(
+        temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void readSnapshot(DataInputStream in) throws IOException {
+    int historyCount = in.readInt();
+    for (int i = 0; i < historyCount; i++) {
+      history.addLast(new ChatMessage(readString(in), readString(in)));
+    }
+    int conversationCount = in.readInt();
+    for (int i = 0; i < conversationCount; i++) {
+      String conversationId = readString(in);
+      int count = in.readInt();
+      List<ChatMessage> messages = new ArrayList<>(count);
+      for (int j = 0; j < count; j++) {
+        messages.add(new ChatMessage(readString(in), readString(in)));
+      }
+      conversations.put(conversationId, messages);
+    }
+  }
+
+  private Map<String, List<ChatMessage>> copyConversations() {
+    Map<String, List<ChatMessage>> copy = new LinkedHashMap<>();
+    for (Map.Entry<String, List<ChatMessage>> entry : conversations.entrySet()) {
+      copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+    }
+    return copy;
+  }
+
+  private void ensureCapacity(int required) throws IOException {
+    if (required <= log.capacity()) {
+      return;
+    }
+    int capacity = Math.max(required, log.capacity() * 2);
+    log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,280 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SpeculativeOpeners answers the questions players usually open a room with before they are asked.
+ * Once the courtroom loads, the predicted openers of each registered persona are sent in the
+ * background on a low-priority thread, until a token budget is spent; a persona registered later is
+ * speculated on as soon as it arrives. When the player's first message to a persona is close enough
+ * to a prediction made with the same dialogue in other rooms, the stored answer is served without a
+ * round trip. The entries added to the history as personas are set up are not dialogue, so personas
+ * set up after a prediction was made do not keep it from being served.
+ *
+ * <p>Only a persona's first turn is served this way; after it, the dialogue has moved on and the
+ * remaining predictions are discarded. Speculation stops for good when the questioning phase ends.
+ */
+public class SpeculativeOpeners {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpeculativeOpeners.class);
+  private static final SpeculativeOpeners INSTANCE = new SpeculativeOpeners();
+
+  private static final int TOKEN_BUDGET = 4000;
+  private static final double MATCH_THRESHOLD = 0.6;
+
+  private static final Map<Persona, List<String>> OPENERS = new EnumMap<>(Persona.class);
+
+  static {
+    OPENERS.put(
+        Persona.STREET_ASSIST,
+        Arrays.asList(
+            "What happened?",
+            "Why did you push them?",
+            "Why did you think the car was malfunctioning?"));
+    OPENERS.put(
+        Persona.KENJI_TANAKA,
+        Arrays.asList(
+            "What happened?", "Are you okay?", "Do you think the robot was right to push you?"));
+    OPENERS.put(
+        Persona.SENTINEL,
+        Arrays.asList(
+            "What happened?",
+            "What did your sensors record?",
+            "Was the car actually malfunctioning?"));
+  }
+
+  public static SpeculativeOpeners getInstance() {
+    return INSTANCE;
+  }
+
+  /** A speculative answer and the dialogue of other rooms it was computed with. */
+  private static class Prediction {
+    private final Set<String> words;
+    private final String dialogue;
+    private final ChatMessage reply;
+
+    private Prediction(String opener, String externalContext, ChatMessage reply) {
+      this.words = words(opener);
+      this.dialogue = GlobalChatHistory.withoutSetupEntries(externalContext);
+      this.reply = reply;
+    }
+  }
+
+  private final Map<Persona, ChatCompletionRequest> templates = new EnumMap<>(Persona.class);
+  private final Map<Persona, List<Prediction>> predictions = new EnumMap<>(Persona.class);
+  private final Set<Persona> answered = new HashSet<>();
+
+  private int tokensSpent;
+  private int hits;
+  private int misses;
+  private ExecutorService worker;
+  private boolean stopped;
+  private volatile ChatCompletionRequest inFlight;
+
+  private SpeculativeOpeners() {}
+
+  /**
+   * Registers a persona for speculation. Only fresh conversations should be registered, as the
+   * predictions assume no prior dialogue with the persona.
+   *
+   * @param persona the persona
+   * @param request a copy of the persona's request holding just its persona prompt
+   */
+  public synchronized void register(Persona persona, ChatCompletionRequest request) {
+    templates.put(persona, request);
+    predictions.put(persona, new ArrayList<>());
+    if (worker != null && !stopped) {
+      // personas are set up lazily, so this one may arrive after speculation has started
+      worker.execute(
+          () -> {
+            for (String opener : OPENERS.get(persona)) {
+              if (!predict(persona, opener)) {
+                return;
+              }
+            }
+          });
+    }
+  }
+
+  /** Starts sending the predicted openers in the background. Later calls have no effect. */
+  public synchronized void start() {
+    if (worker != null || stopped) {
+      return;
+    }
+    worker =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "speculative-openers");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            });
+    worker.execute(this::run);
+  }
+
+  /** Stops speculating and aborts the opener in flight. Speculation cannot be started again. */
+  public void stop() {
+    ExecutorService running;
+    synchronized (this) {
+      stopped = true;
+      running = worker;
+    }
+    if (running != null) {
+      running.shutdownNow();
+    }
+    ChatCompletionRequest request = inFlight;
+    if (request != null) {
+      request.abort();
+    }
+  }
+
+  /**
+   * Returns a stored answer for the player's first message to a persona, if one matches.
+   *
+   * @param persona the persona being asked
+   * @param message the player's message
+   * @param externalContext the external context the real request would be sent with
+   * @return the predicted reply, or null if the real request has to be sent
+   */
+  public synchronized ChatMessage take(Persona persona, String message, String externalContext) {
+    if (!answered.add(persona) || !predictions.containsKey(persona)) {
+      return null; // not the first turn, or the persona was never registered
+    }
+
+    Set<String> asked = words(message);
+    String dialogue = GlobalChatHistory.withoutSetupEntries(externalContext);
+    Prediction best = null;
+    double bestScore = MATCH_THRESHOLD;
+    for (Prediction prediction : predictions.remove(persona)) {
+      double score = similarity(asked, prediction.words);
+      if (score >= bestScore && prediction.dialogue.equals(dialogue)) {
+        best = prediction;
+        bestScore = score;
+      }
+    }
+
+    if (best == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return best == null ? null : best.reply;
+  }
+
+  public synchronized double getHitRate() {
+    int total = hits + misses;
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  public synchronized int getTokensSpent() {
+    return tokensSpent;
+  }
+
+  /**
+   * Summarises how many first turns were served from predictions and what they cost.
+   *
+   * @return a one-line report
+   */
+  public synchronized String report() {
+    return String.format(
+        "Opener speculation: %d/%d first turns served (%.0f%%), %d/%d tokens spent",
+        hits, hits + misses, getHitRate() * 100, tokensSpent, TOKEN_BUDGET);
+  }
+
+  private void run() {
+    // Breadth first, so every persona gets its most likely opener before anyone gets a second
+    int longest = 0;
+    for (List<String> openers : OPENERS.values()) {
+      longest = Math.max(longest, openers.size());
+    }
+    for (int i = 0; i < longest; i++) {
+      for (Persona persona : Persona.values()) {
+        List<String> openers = OPENERS.get(persona);
+        if (i < openers.size() && !predict(persona, openers.get(i))) {
+          return;
+        }
+      }
+    }
+  }
+
+  /** Sends one opener, returning false once the budget is spent. */
+  private boolean predict(Persona persona, String opener) {
+    ChatCompletionRequest request;
+    synchronized (this) {
+      if (stopped || tokensSpent >= TOKEN_BUDGET) {
+        return false;
+      }
+      if (answered.contains(persona) || !templates.containsKey(persona)) {
+        return true;
+      }
+      request = templates.get(persona).copy();
+    }
+
+    String externalContext =
+        GlobalChatHistory.getInstance().buildExternalContext(persona.getConversationId(), 25);
+    request.setVolatileContext("system", externalContext);
+    // no reply is waited on, and the latency of these calls must not skew the p95 of real turns
+    request.setRouter(null).addMessage("user", opener).setPriority(Priority.PREFETCH);
+    inFlight = request;
+    if (isStopped()) {
+      request.abort(); // stopped while this opener was being prepared
+    }
+    try {
+      ChatCompletionResult result = request.execute();
+      ChatMessage reply = result.getChoices().iterator().next().getChatMessage();
+      synchronized (this) {
+        tokensSpent += result.getUsageTotalTokens();
+        List<Prediction> stored = predictions.get(persona);
+        if (stored != null) {
+          stored.add(new Prediction(opener, externalContext, reply));
+        }
+      }
+    } catch (ApiProxyException e) {
+      if (!isStopped()) {
+        LOG.warn("Unable to predict a reply to \"{}\" for {}", opener, persona, e);
+      }
+    } finally {
+      inFlight = null;
+    }
+    return true;
+  }
+
+  private synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  private static Set<String> words(String text) {
+    Set<String> words = new HashSet<>();
+    for (String word : text.toLowerCase().split("[^a-z0-9]+")) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  private static double similarity(Set<String> a, Set<String> b) {
+    if (a.isEmpty() || b.isEmpty()) {
+      return 0;
+    }
+    Set<String> union = new HashSet<>(a);
+    union.addAll(b);
+    int common = a.size() + b.size() - union.size();
+    return (double) common / union.size();
+  }
+}
@@ -0,0 +1,180 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import javafx.animation.PauseTransition;
+import javafx.scene.control.TextField;
+import javafx.util.Duration;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Priority;
+
+/**
+ * TypingSpeculator starts a persona's completion while the player is still looking at their draft.
+ * When the chat input has not changed for a short pause, the current draft is sent on a fork of the
+ * persona's conversation. Any edit cancels that speculation, aborting its HTTP exchange. If the
+ * player then sends exactly the draft that was speculated on, while the persona's conversation and
+ * external context are still the ones it was forked from, the send handler takes over the
+ * speculation instead of starting a new request.
+ *
+ * <p>Speculations run on the chat engine's virtual threads and queue for the proxy behind real
+ * turns until they are taken over. They stay out of the latency router, and end with the phase
+ * like the turns they stand in for.
+ *
+ * <p>This is opt-in, as abandoned drafts cost tokens: start the game with {@code
+ * -Dspeculate.typing=true} to enable it.
+ */
+public class TypingSpeculator {
+
+  private static final Duration PAUSE = Duration.millis(700);
+  private static final int MAX_DRAFT_LENGTH = 200; // only short questions are worth guessing at
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("speculate.typing");
+  }
+
+  /** A completion started for one draft. */
+  public static class Speculation {
+    private final String draft;
+    private final Conversation conversation;
+    private final String externalContext;
+    private final ChatCompletionRequest request;
+    private volatile boolean taken;
+    private CompletableFuture<ChatCompletionResult> result;
+
+    private Speculation(
+        String draft,
+        Conversation conversation,
+        String externalContext,
+        ChatCompletionRequest request) {
+      this.draft = draft;
+      this.conversation = conversation;
+      this.externalContext = externalContext;
+      this.request = request;
+    }
+
+    /**
+     * Waits for the speculative completion.
+     *
+     * @return the result, or null if the speculation failed or was cancelled
+     */
+    public ChatCompletionResult await() {
+      try {
+        return result.join();
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+
+    /** Cancels the speculation and aborts its HTTP exchange if it is in flight. */
+    public void cancel() {
+      request.abort(); // sticky, so this also stops an execution that has not started yet
+      result.cancel(false); // only settles the future, so nothing waits for the aborted exchange
+    }
+
+    /** Returns the request the completion was sent on. */
+    ChatCompletionRequest getRequest() {
+      return request;
+    }
+  }
+
+  private final Supplier<PersonaSession> liveSession;
+  private final PauseTransition pause = new PauseTransition(PAUSE);
+  private Speculation current;
+
+  /**
+   * Watches the given input and speculates on a fork of the persona's conversation.
+   *
+   * @param input the chat input to watch
+   * @param liveSession supplies the persona's session, or null while it is not set up
+   */
+  public TypingSpeculator(TextField input, Supplier<PersonaSession> liveSession) {
+    this.liveSession = liveSession;
+    pause.setOnFinished(event -> speculate(input.getText().trim()));
+    input
+        .textProperty()
+        .addListener(
+            (observable, oldText, newText) -> {
+              cancel();
+              pause.playFromStart();
+            });
+  }
+
+  /**
+   * Hands over the speculation for the message being sent, if it was made for exactly this text on
+   * the persona's current conversation and external context. Must be called before the input is
+   * cleared, as clearing it cancels any speculation still held here.
+   *
+   * @param message the message being sent
+   * @return the matching speculation, or null if the real request has to be sent
+   */
+  public synchronized Speculation take(String message) {
+    pause.stop();
+    Speculation speculation = current;
+    current = null;
+    if (speculation == null) {
+      return null;
+    }
+    PersonaSession session = liveSession.get();
+    if (session != null
+        && speculation.draft.equals(message)
+        // a turn committed since the fork would be answered twice
+        && session.getConversation() == speculation.conversation
+        && speculation.externalContext.equals(buildExternalContext(session))) {
+      speculation.taken = true; // now queues as the turn it stands in for
+      return speculation;
+    }
+    speculation.cancel();
+    return null;
+  }
+
+  /** Cancels the current speculation, if any. */
+  public synchronized void cancel() {
+    if (current != null) {
+      current.cancel();
+      current = null;
+    }
+  }
+
+  private synchronized void speculate(String draft) {
+    PersonaSession session = liveSession.get();
+    if (draft.isEmpty() || draft.length() > MAX_DRAFT_LENGTH || session == null) {
+      return;
+    }
+
+    ChatEngine engine = session.getEngine();
+    Persona persona = session.getPersona();
+    Conversation conversation = session.getConversation();
+    String externalContext = buildExternalContext(session);
+    ChatCompletionRequest fork = session.getRequest().fork(conversation);
+    fork.setVolatileContext("system", externalContext);
+    fork.addMessage("user", draft);
+    Speculation speculation = new Speculation(draft, conversation, externalContext, fork);
+
+    // the latency of a draft that may never be sent must not skew the p95 of real turns
+    fork.setRouter(null);
+    fork.setPriority(
+        () -> speculation.taken ? engine.getPriority(persona) : Priority.PREFETCH);
+    long deadlineMillis = engine.getDeadlineMillis();
+    if (deadlineMillis > 0) {
+      fork.setDeadline(deadlineMillis);
+    }
+    speculation.result =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return fork.execute();
+              } catch (Exception e) {
+                return null; // aborted, or the real request will report the problem
+              }
+            },
+            engine.getExecutor());
+    current = speculation;
+  }
+
+  private static String buildExternalContext(PersonaSession session) {
+    String conversationId = session.getPersona().getConversationId();
+    return session.getEngine().getHistory().buildExternalContext(conversationId, 25);
+  }
+}
@@ -4,15 +4,18 @@ import java.io.IOException;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
 import javafx.scene.shape.Rectangle;
+import nz.ac.auckland.se206.assets.ImageAssets;
 
 /**
  * Controller class for the room view. Handles user interactions within the room where the user can
  * chat with customers and guess their profession.
  */
-public class CourtRoomController {
+public class CourtRoomController implements Dehydratable {
   private static boolean isFirstTimeInit = true;
 
+  @FXML private ImageView backgroundImage;
   @FXML private Rectangle rectPatrol;
   @FXML private Rectangle rectDelivery;
   @FXML private Rectangle rectSecurity;
@@ -27,12 +30,29 @@ public class CourtRoomController {
    */
   @FXML
   public void initialize() {
+    backgroundImage.setImage(ImageAssets.getInstance().getRoom(ImageAssets.COURTROOM));
     if (isFirstTimeInit) {
 
       isFirstTimeInit = false;
     }
   }
 
+  @Override
+  public long estimateRetainedBytes() {
+    return backgroundImage.getImage() == null ? 0 : ImageAssets.estimateRoomBytes();
+  }
+
+  @Override
+  public void dehydrate() {
+    backgroundImage.setImage(null);
+    ImageAssets.getInstance().release(ImageAssets.COURTROOM);
+  }
+
+  @Override
+  public void rehydrate() {
+    backgroundImage.setImage(ImageAssets.getInstance().getRoom(ImageAssets.COURTROOM));
+  }
+
   public void setGameController(GameController gameController) {
     this.gameController = gameController;
   }
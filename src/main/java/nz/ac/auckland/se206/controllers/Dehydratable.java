@@ -0,0 +1,22 @@
+package nz.ac.auckland.se206.controllers;
+
+/**
+ * A scene controller whose heavy view state can be dropped while the scene is off screen and
+ * rebuilt when the player returns. Only what can be rebuilt is dropped, such as decoded images and
+ * chat text; the controller itself and the conversation behind it are kept.
+ */
+public interface Dehydratable {
+
+  /**
+   * Estimates the memory held by the scene's droppable view state.
+   *
+   * @return the estimate in bytes, or 0 while dehydrated
+   */
+  long estimateRetainedBytes();
+
+  /** Drops the droppable view state. Called on the FX thread while the scene is off screen. */
+  void dehydrate();
+
+  /** Rebuilds the view state dropped by {@link #dehydrate()}. Called on the FX thread. */
+  void rehydrate();
+}
@@ -1,8 +1,15 @@
 package nz.ac.auckland.se206.controllers;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -10,9 +17,24 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.layout.Pane;
 import javafx.util.Duration;
+import nz.ac.auckland.apiproxy.chat.openai.ModelRouter;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.se206.StartupTimer;
+import nz.ac.auckland.se206.Trial;
+import nz.ac.auckland.se206.chat.ChatEngine;
+import nz.ac.auckland.se206.chat.Persona;
+import nz.ac.auckland.se206.chat.ResponseCache;
+import nz.ac.auckland.se206.chat.SessionJournal;
+import nz.ac.auckland.se206.chat.SpeculativeOpeners;
+import nz.ac.auckland.se206.speech.TextToSpeech;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class GameController {
 
+  private static final Logger LOG = LoggerFactory.getLogger(GameController.class);
+
   // --- Static flags ---
   private static boolean isFirstTimeInit = true;
 
@@ -22,18 +44,30 @@ public class GameController {
   @FXML private Button btnJudge;
   @FXML private Button btnReturn;
 
+  // Off-screen rooms are built on these threads while the courtroom is already showing
+  private static final ExecutorService SCENE_LOADERS =
+      Executors.newFixedThreadPool(
+          2,
+          runnable -> {
+            Thread thread = new Thread(runnable, "scene-loader");
+            thread.setDaemon(true);
+            return thread;
+          });
+
   // Cached scenes
   private Parent courtRoomRoot;
-  private Parent patrolRoot;
+  private CompletableFuture<Parent> patrolScene;
   private PatrolController patrolController; // retain controller to trigger one-time intro
-  private Parent deliveryRoot;
-  private Parent securityRoot;
-  private Parent verdictRoot;
+  private CompletableFuture<Parent> deliveryScene;
+  private HumanController humanController;
+  private CompletableFuture<Parent> securityScene;
+  private SecurityController securityController;
+  private CompletableFuture<Parent> verdictScene;
+  private CompletableFuture<Parent> requestedScene; // the room to show once it has loaded
+  private final SceneCache sceneCache = new SceneCache();
 
-  private Timeline phaseOneTimer;
-  private Timeline phaseTwoTimer;
-  private int phaseOneSecondsLeft;
-  private int phaseTwoSecondsLeft;
+  private Trial trial;
+  private Timeline clock;
 
   /**
    * Initializes the room view. If it's the first time initialization, it will provide instructions
@@ -42,16 +76,29 @@ public class GameController {
   public void initialize() {
     if (isFirstTimeInit) {
       System.out.println("Initialize called!");
-      // Load and cache the courtroom scene
+      // The trial aborts any chat turn still running when its phase runs out...
+      trial = new Trial(ChatEngine.getInstance(), 120, 10);
+      trial.addPhaseListener(this::onPhaseChanged);
+      // ...and turns shrink to fit the time left in the phase (a quarter of it per turn at most)
+      ModelRouter.getInstance().setRemainingTime(trial::getSecondsLeft, 0.25);
+      // Recover a trial interrupted by a crash before the personas are set up
+      SessionJournal.getInstance().restore();
+      StartupTimer.mark("journal restored");
+      // Show the courtroom first; the other rooms load in parallel in the background
       courtRoomRoot = loadScene("/fxml/courtRoom.fxml");
-      patrolRoot = loadScene("/fxml/patrol.fxml");
-      deliveryRoot = loadScene("/fxml/delivery.fxml");
-      securityRoot = loadScene("/fxml/security.fxml");
-      verdictRoot = loadScene("/fxml/verdict.fxml");
-
-      // Set initial courtroom scene
       setContent(courtRoomRoot);
-      startPhaseOneTimer();
+      StartupTimer.mark("courtroom loaded");
+      patrolScene = loadInBackground("/fxml/patrol.fxml");
+      deliveryScene = loadInBackground("/fxml/delivery.fxml");
+      securityScene = loadInBackground("/fxml/security.fxml");
+      verdictScene = loadInBackground("/fxml/verdict.fxml");
+      CompletableFuture.allOf(patrolScene, deliveryScene, securityScene, verdictScene)
+          .thenRun(() -> StartupTimer.mark("all rooms loaded"));
+      // Set up the personas behind the rooms too, so their openers are predicted from the start
+      CompletableFuture.runAsync(this::prepareSessions, SCENE_LOADERS);
+
+      SpeculativeOpeners.getInstance().start();
+      startClock();
       isFirstTimeInit = false;
     }
   }
@@ -61,6 +108,9 @@ public class GameController {
     try {
       FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlPath));
       Parent root = loader.load();
+      if (loader.getController() instanceof Dehydratable) {
+        sceneCache.register(root, loader.getController());
+      }
       // If loading courtroom, inject this GameController
       if (fxmlPath.equals("/fxml/courtRoom.fxml")) {
         CourtRoomController controller = loader.getController();
@@ -68,6 +118,13 @@ public class GameController {
       } else if (fxmlPath.equals("/fxml/patrol.fxml")) {
         // Keep reference for triggering intro audio after scene switch
         patrolController = loader.getController();
+      } else if (fxmlPath.equals("/fxml/delivery.fxml")) {
+        humanController = loader.getController();
+      } else if (fxmlPath.equals("/fxml/security.fxml")) {
+        securityController = loader.getController();
+      } else if (fxmlPath.equals("/fxml/verdict.fxml")) {
+        VerdictController controller = loader.getController();
+        controller.setTrial(trial); // the player's choice decides the trial
       }
       return root;
     } catch (IOException e) {
@@ -76,86 +133,129 @@ public class GameController {
     }
   }
 
+  /** Loads an FXML file on a background thread; nothing is attached to the live scene there. */
+  private CompletableFuture<Parent> loadInBackground(String fxmlPath) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          Parent root = loadScene(fxmlPath);
+          StartupTimer.mark(fxmlPath + " loaded");
+          return root;
+        },
+        SCENE_LOADERS);
+  }
+
+  /** Reads the config and prompts of every persona, registering fresh ones for speculation. */
+  private void prepareSessions() {
+    for (Persona persona : Persona.values()) {
+      try {
+        ChatEngine.getInstance().getSession(persona);
+      } catch (ApiProxyException e) {
+        // the room tries again when the player enters it
+        LOG.warn("Unable to prepare " + persona + " ahead of time", e);
+      }
+    }
+    StartupTimer.mark("personas ready");
+  }
+
+  /**
+   * Shows a background-loaded scene, at once if it has loaded or as soon as it has otherwise. The
+   * FX thread never waits for it, and a room the player has left before it loaded is not shown.
+   */
+  private void show(CompletableFuture<Parent> scene, Runnable onShown) {
+    requestedScene = scene;
+    if (scene.isDone()) {
+      setContent(scene.join());
+      onShown.run();
+      return;
+    }
+    LOG.debug("Waiting for a room that is still loading");
+    scene.thenAcceptAsync(
+        root -> {
+          if (requestedScene == scene) {
+            setContent(root);
+            onShown.run();
+          }
+        },
+        Platform::runLater);
+  }
+
   /** Sets the given root node as the content of the contentPane. */
   public void setContent(Parent root) {
     if (root == null) {
       System.err.println("setContent called with null root (scene failed to load)");
       return;
     }
+    TextToSpeech.stop(); // a line from the previous scene should not follow the player
+    sceneCache.show(root);
     contentPane.getChildren().setAll(root);
   }
 
   public void showCourtRoom() {
+    requestedScene = null;
     setContent(courtRoomRoot);
+    ChatEngine.getInstance().setFocus(null);
   }
 
   public void showPatrol() {
-    setContent(patrolRoot);
-    // Trigger the patrol intro audio exactly once (lazy – only once user actually enters scene)
-    if (patrolController != null) {
-      patrolController.playIntroIfNeeded();
-    }
+    show(
+        patrolScene,
+        () -> {
+          ChatEngine.getInstance().setFocus(Persona.STREET_ASSIST);
+          // Trigger the patrol intro audio exactly once (lazy – only once user actually enters)
+          if (patrolController != null) {
+            patrolController.ensureChatReady();
+            patrolController.playIntroIfNeeded();
+          }
+        });
   }
 
   public void showDelivery() {
-    setContent(deliveryRoot);
+    show(
+        deliveryScene,
+        () -> {
+          ChatEngine.getInstance().setFocus(Persona.KENJI_TANAKA);
+          if (humanController != null) {
+            humanController.ensureChatReady();
+          }
+        });
   }
 
   public void showSecurity() {
-    setContent(securityRoot);
+    show(
+        securityScene,
+        () -> {
+          ChatEngine.getInstance().setFocus(Persona.SENTINEL);
+          if (securityController != null) {
+            securityController.ensureChatReady();
+          }
+        });
   }
 
   public void showVerdict() {
-    setContent(verdictRoot);
+    show(verdictScene, () -> ChatEngine.getInstance().setFocus(null));
   }
 
   @FXML
   private void onBtnReturnCourtRoomAction() {
-    setContent(courtRoomRoot);
+    showCourtRoom();
   }
 
-  private void startPhaseOneTimer() {
-    phaseOneSecondsLeft = 120; // 2 minutes
-    updateTimerLabel(phaseOneSecondsLeft);
-    phaseOneTimer =
+  private void startClock() {
+    updateTimerLabel();
+    clock =
         new Timeline(
             new KeyFrame(
                 Duration.seconds(1),
                 event -> {
-                  phaseOneSecondsLeft--;
-                  updateTimerLabel(phaseOneSecondsLeft);
-                  if (phaseOneSecondsLeft <= 0) {
-                    phaseOneTimer.stop();
-                    btnJudge.setDisable(true);
-                    btnReturn.setDisable(true);
-                    showVerdict();
-                    startPhaseTwoTimer();
-                  }
+                  trial.tick();
+                  updateTimerLabel();
                 }));
-    phaseOneTimer.setCycleCount(phaseOneSecondsLeft);
-    phaseOneTimer.play();
+    clock.setCycleCount(Animation.INDEFINITE);
+    clock.play();
   }
 
-  private void startPhaseTwoTimer() {
-    phaseTwoSecondsLeft = 10;
-    updateTimerLabel(phaseTwoSecondsLeft);
-    phaseTwoTimer =
-        new Timeline(
-            new KeyFrame(
-                Duration.seconds(1),
-                event -> {
-                  phaseTwoSecondsLeft--;
-                  updateTimerLabel(phaseTwoSecondsLeft);
-                  if (phaseTwoSecondsLeft <= 0) {
-                    phaseTwoTimer.stop();
-                    onDecisionPhaseEnd();
-                  }
-                }));
-    phaseTwoTimer.setCycleCount(phaseTwoSecondsLeft);
-    phaseTwoTimer.play();
-  }
-
-  private void updateTimerLabel(int secondsLeft) {
+  private void updateTimerLabel() {
+    int secondsLeft = trial.getSecondsLeft();
     int minutes = secondsLeft / 60;
     int seconds = secondsLeft % 60;
     timer.setText(String.format("%02d:%02d", minutes, seconds));
@@ -163,14 +263,33 @@ public class GameController {
 
   @FXML
   private void onBtnJudgeAction() {
-    if (phaseOneTimer != null && phaseOneTimer.getStatus() == Timeline.Status.RUNNING) {
+    trial.judge();
+    updateTimerLabel();
+  }
+
+  private void onPhaseChanged(Trial.Phase phase) {
+    if (phase == Trial.Phase.VERDICT) {
+      // the trial cancelled the interrogation's turns; stop predicting openers for it too
+      SpeculativeOpeners.getInstance().stop();
       btnJudge.setDisable(true);
       btnReturn.setDisable(true);
       showVerdict();
-      phaseOneTimer.stop();
-      startPhaseTwoTimer();
+    } else if (phase == Trial.Phase.FINISHED) {
+      clock.stop();
+      onDecisionPhaseEnd();
     }
   }
 
-  private void onDecisionPhaseEnd() {}
+  private void onDecisionPhaseEnd() {
+    // Keep a transcript of the finished trial, then start the next launch from scratch
+    SessionJournal journal = SessionJournal.getInstance();
+    Path transcript = Paths.get("session", "transcript-" + System.currentTimeMillis() + ".txt");
+    journal.exportTranscript(transcript);
+    journal.discard();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(SpeculativeOpeners.getInstance().report());
+      LOG.debug(ResponseCache.getInstance().report());
+      LOG.debug(ProxyScheduler.getInstance().report());
+    }
+  }
 }
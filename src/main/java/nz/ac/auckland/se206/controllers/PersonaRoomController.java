@@ -0,0 +1,202 @@
+package nz.ac.auckland.se206.controllers;
+
+import java.io.IOException;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
+import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.image.ImageView;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.se206.assets.ImageAssets;
+import nz.ac.auckland.se206.chat.ChatEngine;
+import nz.ac.auckland.se206.chat.Persona;
+import nz.ac.auckland.se206.chat.PersonaSession;
+import nz.ac.auckland.se206.chat.TypingSpeculator;
+import nz.ac.auckland.se206.speech.TextToSpeech;
+import nz.ac.auckland.se206.ui.ChatLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base controller for a room where the player chats with one persona. It shows the room background
+ * and the persona's conversation, sends the player's messages through the persona's session, voices
+ * replies while the player is in the room, and gives back the background and chat text while the
+ * room is off screen. Subclasses name the persona and the room, and add the room's own controls.
+ */
+public abstract class PersonaRoomController implements Dehydratable, PersonaSession.Listener {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PersonaRoomController.class);
+
+  @FXML private ImageView backgroundImage;
+  @FXML private ChatLog chatBox;
+  @FXML private TextField chatInput;
+  @FXML private Button btnSend;
+  @FXML private Label lblThink; // thinking indicator
+
+  private final Persona persona;
+  private final String conversationId;
+  private String backgroundName;
+  private PersonaSession session; // created on first use, see ensureChatReady
+  private TypingSpeculator typingSpeculator; // opt-in, see TypingSpeculator.isEnabled
+
+  /**
+   * Creates the controller of a persona's room.
+   *
+   * @param persona the persona the player chats with in this room
+   * @param backgroundName the room background, as named in {@link ImageAssets}
+   */
+  protected PersonaRoomController(Persona persona, String backgroundName) {
+    this.persona = persona;
+    this.conversationId = persona.getConversationId();
+    this.backgroundName = backgroundName;
+  }
+
+  /** Initializes the room view. Called by the FXML loader once the controls are injected. */
+  @FXML
+  public void initialize() {
+    backgroundImage.setImage(ImageAssets.getInstance().getRoom(backgroundName));
+    if (lblThink != null) {
+      lblThink.setVisible(false);
+      lblThink.setManaged(false);
+    }
+    if (TypingSpeculator.isEnabled()) {
+      typingSpeculator = new TypingSpeculator(chatInput, () -> session);
+    }
+    // barge-in: typing cuts off any line still being spoken
+    chatInput
+        .textProperty()
+        .addListener(
+            (observable, oldText, newText) -> {
+              if (!newText.isEmpty()) {
+                TextToSpeech.stop();
+              }
+            });
+  }
+
+  /**
+   * Sets up the persona's chat on first use, so reading the config and prompts stays off the
+   * startup path. Called when the room is shown and before a message is sent.
+   */
+  public void ensureChatReady() {
+    if (session != null) {
+      return;
+    }
+    try {
+      session = ChatEngine.getInstance().getSession(persona);
+    } catch (ApiProxyException e) {
+      LOG.warn("Unable to set up the chat with " + persona, e);
+      return;
+    }
+    session.addListener(this, Platform::runLater);
+    showConversation(); // anything recovered from a previous run
+  }
+
+  @Override
+  public void onMessage(ChatMessage message) {
+    appendChatMessage(message);
+    // a reply from a room the player has left is only shown, so it never cuts off the line
+    // of the persona they are talking to
+    if ("assistant".equals(message.getRole()) && ChatEngine.getInstance().isInFocus(persona)) {
+      TextToSpeech.speakReply(conversationId, persona.getVoice(), message.getContent());
+    }
+  }
+
+  @Override
+  public void onTurnFailed() {
+    showConversation(); // takes back the messages of the failed turn
+  }
+
+  @Override
+  public void onBusyChanged(boolean busy) {
+    // input stays enabled; anything sent meanwhile is queued by the session
+    if (lblThink != null) {
+      lblThink.setVisible(busy);
+      lblThink.setManaged(busy);
+    }
+  }
+
+  @Override
+  public long estimateRetainedBytes() {
+    long image = backgroundImage.getImage() == null ? 0 : ImageAssets.estimateRoomBytes();
+    return image + 2L * chatBox.getRetainedChars();
+  }
+
+  @Override
+  public void dehydrate() {
+    backgroundImage.setImage(null);
+    ImageAssets.getInstance().release(backgroundName);
+    if (session == null || !session.isBusy()) {
+      chatBox.clear(); // the conversation itself lives on in the session
+    }
+  }
+
+  @Override
+  public void rehydrate() {
+    backgroundImage.setImage(ImageAssets.getInstance().getRoom(backgroundName));
+    if (session != null && !session.isBusy()) {
+      showConversation();
+    }
+  }
+
+  /**
+   * Swaps the room background, e.g. once something in the room has changed. Backgrounds preloaded
+   * at startup swap without decoding on the FX thread.
+   *
+   * @param backgroundName the new background, as named in {@link ImageAssets}
+   */
+  protected void setBackground(String backgroundName) {
+    this.backgroundName = backgroundName;
+    backgroundImage.setImage(ImageAssets.getInstance().getRoom(backgroundName));
+  }
+
+  /**
+   * Appends a chat message to the chat log.
+   *
+   * @param msg the chat message to append
+   */
+  private void appendChatMessage(ChatMessage msg) {
+    String displayRole = msg.getRole();
+    if ("assistant".equals(displayRole)) {
+      displayRole = conversationId; // show persona label instead of generic assistant
+    }
+    chatBox.append(displayRole, msg.getContent());
+  }
+
+  private void showConversation() {
+    chatBox.clear();
+    for (ChatMessage message : session.getTranscript()) {
+      if (!"system".equals(message.getRole())) {
+        appendChatMessage(message);
+      }
+    }
+  }
+
+  /**
+   * Sends the player's message to the persona, even while an earlier reply is pending. The reply is
+   * shown when the session reports it.
+   *
+   * @param event the action event triggered by the send button
+   * @throws ApiProxyException if there is an error communicating with the API proxy
+   * @throws IOException if there is an I/O error
+   */
+  @FXML
+  private void onBtnSendAction(ActionEvent event) throws ApiProxyException, IOException {
+    String message = chatInput.getText().trim();
+    if (message.isEmpty()) {
+      return;
+    }
+    ensureChatReady();
+    if (session == null) {
+      return;
+    }
+
+    // take over a completion already started for this exact draft while the player paused
+    TypingSpeculator.Speculation speculation =
+        typingSpeculator == null ? null : typingSpeculator.take(message);
+    chatInput.clear();
+    session.send(message, speculation);
+  }
+}
@@ -0,0 +1,102 @@
+package nz.ac.auckland.se206.controllers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javafx.scene.Parent;
+import nz.ac.auckland.se206.assets.ImageAssets;
+
+/**
+ * SceneCache keeps the view state of off-screen scenes under a memory budget. Scenes stay built,
+ * so controllers and conversations survive, but when the inactive scenes hold more than the budget
+ * the least recently shown ones are dehydrated, and a dehydrated scene is rehydrated as it is shown
+ * again. By default the budget holds one room background plus 1 MB of chat text, so the scene on
+ * screen and the room the player was last in stay ready and the rest give back their images; it
+ * can be set with -Dscenes.budget.mb.
+ */
+public class SceneCache {
+
+  private static final long CHAT_HEADROOM_BYTES = 1024 * 1024;
+
+  private final long budgetBytes;
+  // Least recently shown first
+  private final Map<Parent, Dehydratable> scenes = new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<Dehydratable> dehydrated = new HashSet<>();
+  private Parent active;
+
+  public SceneCache() {
+    Long budgetMegabytes = Long.getLong("scenes.budget.mb");
+    budgetBytes =
+        budgetMegabytes == null
+            ? ImageAssets.estimateRoomBytes() + CHAT_HEADROOM_BYTES
+            : budgetMegabytes * 1024 * 1024;
+  }
+
+  /**
+   * Creates a scene cache with a fixed budget.
+   *
+   * @param budgetBytes the memory inactive scenes may hold before they are dehydrated
+   */
+  SceneCache(long budgetBytes) {
+    if (budgetBytes < 0) {
+      throw new IllegalArgumentException(
+          "budget must not be negative, but was given " + budgetBytes);
+    }
+    this.budgetBytes = budgetBytes;
+  }
+
+  /**
+   * Registers a scene whose controller can give back memory while it is off screen. Scenes that
+   * are not registered are simply never dehydrated.
+   *
+   * @param root the root of the scene
+   * @param controller the scene's controller
+   */
+  public synchronized void register(Parent root, Dehydratable controller) {
+    scenes.put(root, controller);
+  }
+
+  /**
+   * Marks a scene as the one on screen, rehydrating it if needed and then dehydrating inactive
+   * scenes until they fit the budget. Called on the FX thread.
+   *
+   * @param root the root of the scene being shown
+   */
+  public synchronized void show(Parent root) {
+    active = root;
+    Dehydratable controller = scenes.get(root); // also marks it most recently shown
+    if (controller != null && dehydrated.remove(controller)) {
+      controller.rehydrate();
+    }
+    evict();
+  }
+
+  /** Returns the memory budget of the inactive scenes, in bytes. */
+  long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  private void evict() {
+    long budget = getBudgetBytes();
+    long retained = 0;
+    List<Dehydratable> inactive = new ArrayList<>();
+    for (Map.Entry<Parent, Dehydratable> scene : scenes.entrySet()) {
+      Dehydratable controller = scene.getValue();
+      if (scene.getKey() != active && !dehydrated.contains(controller)) {
+        inactive.add(controller);
+        retained += controller.estimateRetainedBytes();
+      }
+    }
+    for (Dehydratable controller : inactive) {
+      if (retained <= budget) {
+        break;
+      }
+      retained -= controller.estimateRetainedBytes();
+      controller.dehydrate();
+      dehydrated.add(controller);
+    }
+  }
+}
@@ -1,19 +1,17 @@
 package nz.ac.auckland.se206.controllers;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import nz.ac.auckland.se206.Trial;
+import nz.ac.auckland.se206.speech.TextToSpeech;
 
 /**
  * Controller for the verdict screen where the user is asked to confirm whether the AI defendant's
- * decision was correct. Provides simple callback hooks so higher‑level game logic can react without
- * tightly coupling to this controller.
+ * decision was correct. The choice is handed to the {@link Trial}, which records it, finishes
+ * the trial and supplies the outcome shown here, so higher‑level game logic reacts to the trial
+ * rather than to this controller.
  */
 public class VerdictController {
 
@@ -22,11 +20,7 @@ public class VerdictController {
   @FXML private Button btnNo;
   @FXML private Label lblOutcome;
 
-  // Resource paths for outcome texts
-  private static final String OUTCOME_RESOURCE = "/prompts/verdict.txt";
-
-  private String cachedYesText;
-  private String cachedNoText;
+  private Trial trial;
 
   @FXML
   private void initialize() {
@@ -37,50 +31,41 @@ public class VerdictController {
     }
   }
 
-  private String loadText(String resourcePath) {
-    try (InputStream in = getClass().getResourceAsStream(resourcePath)) {
-      if (in == null) {
-        return "[Missing resource: " + resourcePath + "]";
-      }
-      try (BufferedReader br =
-          new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-          sb.append(line).append('\n');
-        }
-        return sb.toString().trim();
-      }
-    } catch (IOException e) {
-      return "[Error reading resource: " + resourcePath + "]";
-    }
+  /**
+   * Sets the trial the verdict is given in. Called by GameController once the scene is loaded.
+   *
+   * @param trial the trial
+   */
+  public void setTrial(Trial trial) {
+    this.trial = trial;
   }
 
   private void showOutcome(String text) {
     lblOutcome.setText(text);
     lblOutcome.setManaged(true);
     lblOutcome.setVisible(true);
+    // prefetched at startup, so this plays from the audio cache
+    TextToSpeech.speak(text);
+  }
+
+  private void decide(boolean agreed) {
+    btnYes.setDisable(true);
+    btnNo.setDisable(true);
+    String outcome = trial.decide(agreed);
+    if (outcome != null) {
+      showOutcome(outcome);
+    } // otherwise the verdict phase ran out before the player chose
   }
 
   /** Handler for Yes button click. */
   @FXML
   private void onBtnYesAction(ActionEvent event) {
-    if (cachedYesText == null) {
-      cachedYesText = loadText(OUTCOME_RESOURCE);
-    }
-    showOutcome(cachedYesText);
-    btnYes.setDisable(true);
-    btnNo.setDisable(true);
+    decide(true);
   }
 
   /** Handler for No button click. */
   @FXML
   private void onBtnNoAction(ActionEvent event) {
-    if (cachedNoText == null) {
-      cachedNoText = loadText(OUTCOME_RESOURCE);
-    }
-    showOutcome(cachedNoText);
-    btnYes.setDisable(true);
-    btnNo.setDisable(true);
+    decide(false);
   }
 }
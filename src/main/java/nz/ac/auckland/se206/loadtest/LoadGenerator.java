@@ -0,0 +1,418 @@
+package nz.ac.auckland.se206.loadtest;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyClient;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.se206.Trial;
+import nz.ac.auckland.se206.chat.ChatEngine;
+import nz.ac.auckland.se206.chat.GlobalChatHistory;
+import nz.ac.auckland.se206.chat.Persona;
+import nz.ac.auckland.se206.chat.ResponseCache;
+import nz.ac.auckland.se206.chat.SpeculativeOpeners;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays a scripted player across many concurrent headless trials and reports how the chat path
+ * held up: throughput, turn latency percentiles, memory allocated and threads used. Each simulated
+ * player gets its own {@link Trial}, chat engine and history on a virtual thread, with the trial's
+ * clock ticking in real time. Unless an endpoint is given, the proxy is replaced by a local
+ * stand-in that answers after a fixed delay. Run it with, e.g.
+ *
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=nz.ac.auckland.se206.loadtest.LoadGenerator \
+ *     -Dexec.args="--sessions 200 --stand-in-latency-ms 1200"
+ * </pre>
+ *
+ * <p>A script has one step per line: {@code persona: message} asks a persona something, where the
+ * persona is named by its room (patrol, delivery or security) or its abbreviation, {@code judge}
+ * ends questioning, and {@code verdict yes} or {@code verdict no} gives the verdict. Blank lines
+ * and lines starting with {@code #} are skipped. Questions left when questioning runs out are
+ * skipped too, as a player could not ask them either.
+ */
+public class LoadGenerator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+  private static final List<String> DEFAULT_SCRIPT =
+      List.of(
+          "patrol: What did you detect just before you swerved?",
+          "delivery: Where were you standing when the car came towards you?",
+          "security: What does your footage show of the car's speed?",
+          "patrol: Why did you decide the shopfront was the safer choice?",
+          "delivery: Did you see the car before the robot moved?",
+          "judge",
+          "verdict yes");
+
+  private static final String USAGE =
+      "Usage: LoadGenerator [--sessions N] [--endpoint URL] [--script FILE] [--think-ms MS]\n"
+          + "    [--questioning-seconds S] [--verdict-seconds S] [--proxy-concurrency N]\n"
+          + "    [--stand-in-latency-ms MS]";
+
+  /** One scripted action of the player. */
+  private static class Step {
+    private final Persona persona; // null unless the step asks a question
+    private final String message;
+    private final boolean judge;
+    private final Boolean verdict;
+
+    private Step(Persona persona, String message, boolean judge, Boolean verdict) {
+      this.persona = persona;
+      this.message = message;
+      this.judge = judge;
+      this.verdict = verdict;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options;
+    List<Step> script;
+    try {
+      options = parseOptions(args);
+      script =
+          parseScript(
+              options.containsKey("script")
+                  ? Files.readAllLines(Paths.get(options.get("script")), StandardCharsets.UTF_8)
+                  : DEFAULT_SCRIPT);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+    int sessions = getInt(options, "sessions", 20);
+    // each player runs their own game with its own cap, so by default the cap scales with them
+    int concurrency = getInt(options, "proxy-concurrency", 4 * sessions);
+
+    LocalProxy standIn = null;
+    String endpoint = options.get("endpoint");
+    if (endpoint == null) {
+      standIn = new LocalProxy(getInt(options, "stand-in-latency-ms", 800));
+      endpoint = standIn.getUrl();
+    }
+    // read when the proxy classes are first used, so these must be set before anything else runs
+    System.setProperty("proxy.url", endpoint);
+    System.setProperty("proxy.concurrency", Integer.toString(concurrency));
+    System.setProperty("proxy.connections", Integer.toString(2 * concurrency));
+
+    ApiProxyConfig config;
+    try {
+      config =
+          standIn != null
+              ? ApiProxyConfig.of("load-test", "load-test@localhost")
+              : ApiProxyConfig.readConfig();
+      // warm up as the game's Prewarmer does, so first turns do not measure class loading
+      ProxyClient.warmUp();
+      ChatCompletionRequest.warmUpCodecs();
+    } catch (ApiProxyException e) {
+      LOG.error("Unable to start the load test", e);
+      System.exit(1);
+      return;
+    }
+
+    LoadGenerator generator =
+        new LoadGenerator(
+            config,
+            script,
+            getInt(options, "think-ms", 2000),
+            getInt(options, "questioning-seconds", 120),
+            getInt(options, "verdict-seconds", 10));
+    System.out.println(
+        "Replaying "
+            + script.size()
+            + " steps across "
+            + sessions
+            + " sessions against "
+            + endpoint);
+    generator.run(sessions);
+    System.out.println(generator.report(sessions));
+    if (standIn != null) {
+      standIn.close();
+    }
+    System.exit(0); // the proxy client's pool threads would otherwise keep the JVM alive
+  }
+
+  private final ApiProxyConfig config;
+  private final List<Step> script;
+  private final long thinkMillis;
+  private final int questioningSeconds;
+  private final int verdictSeconds;
+
+  private final ScheduledExecutorService clocks =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "trial-clock");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final List<Long> latencyNanos = new ArrayList<>(); // guarded by itself
+  private final AtomicInteger failedTurns = new AtomicInteger();
+  private final AtomicInteger finishedTrials = new AtomicInteger();
+  private final AtomicInteger turnsInFlight = new AtomicInteger();
+  private final AtomicInteger peakTurnsInFlight = new AtomicInteger();
+
+  private final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private long elapsedNanos;
+  private long allocatedBytes;
+  private long gcCount;
+  private long gcMillis;
+
+  private LoadGenerator(
+      ApiProxyConfig config,
+      List<Step> script,
+      long thinkMillis,
+      int questioningSeconds,
+      int verdictSeconds) {
+    this.config = config;
+    this.script = script;
+    this.thinkMillis = thinkMillis;
+    this.questioningSeconds = questioningSeconds;
+    this.verdictSeconds = verdictSeconds;
+  }
+
+  /** Runs the given number of trials at once and waits for all of them. */
+  private void run(int sessions) {
+    threads.resetPeakThreadCount();
+    long allocatedBefore = threads.getTotalThreadAllocatedBytes();
+    long[] gcBefore = readGc();
+    long startNanos = System.nanoTime();
+
+    try (ExecutorService players =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("player-", 0).factory())) {
+      for (int i = 0; i < sessions; i++) {
+        players.execute(this::runSession);
+      }
+    } // waits for every player to finish
+
+    elapsedNanos = System.nanoTime() - startNanos;
+    allocatedBytes = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+    long[] gcAfter = readGc();
+    gcCount = gcAfter[0] - gcBefore[0];
+    gcMillis = gcAfter[1] - gcBefore[1];
+    clocks.shutdownNow();
+  }
+
+  private void runSession() {
+    ChatEngine engine = new ChatEngine(config, new GlobalChatHistory());
+    Trial trial = new Trial(engine, questioningSeconds, verdictSeconds);
+    ScheduledFuture<?> clock = clocks.scheduleAtFixedRate(trial::tick, 1, 1, TimeUnit.SECONDS);
+    try {
+      for (Step step : script) {
+        if (trial.getPhase() == Trial.Phase.FINISHED) {
+          break;
+        }
+        if (step.judge) {
+          trial.judge();
+        } else if (step.verdict != null) {
+          trial.decide(step.verdict);
+        } else if (trial.getPhase() == Trial.Phase.QUESTIONING) {
+          engine.setFocus(step.persona);
+          ask(engine, step);
+          Thread.sleep(thinkMillis);
+        }
+      }
+      if (trial.getPhase() == Trial.Phase.FINISHED) {
+        finishedTrials.incrementAndGet();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      clock.cancel(false);
+      engine.shutdown();
+    }
+  }
+
+  private void ask(ChatEngine engine, Step step) {
+    int inFlight = turnsInFlight.incrementAndGet();
+    peakTurnsInFlight.accumulateAndGet(inFlight, Math::max);
+    long start = System.nanoTime();
+    ChatMessage reply = null;
+    try {
+      reply = engine.getSession(step.persona).send(step.message, null).join();
+    } catch (ApiProxyException e) {
+      LOG.warn("{} turn failed: {}", step.persona, e.getMessage());
+    } finally {
+      turnsInFlight.decrementAndGet();
+    }
+    if (reply == null) {
+      failedTurns.incrementAndGet();
+      return;
+    }
+    long nanos = System.nanoTime() - start;
+    synchronized (latencyNanos) {
+      latencyNanos.add(nanos);
+    }
+  }
+
+  private String report(int sessions) {
+    long[] sorted;
+    synchronized (latencyNanos) {
+      sorted = latencyNanos.stream().mapToLong(Long::longValue).toArray();
+    }
+    Arrays.sort(sorted);
+    double seconds = elapsedNanos / 1e9;
+    int turns = sorted.length + failedTurns.get();
+
+    StringBuilder sb = new StringBuilder();
+    append(sb, "Trials finished", "%d/%d in %.1f s", finishedTrials.get(), sessions, seconds);
+    append(
+        sb,
+        "Turns",
+        "%d ok, %d failed, %.2f turns/s",
+        sorted.length,
+        failedTurns.get(),
+        turns / seconds);
+    append(
+        sb,
+        "Turn latency (ms)",
+        "p50 %d, p90 %d, p95 %d, p99 %d, max %d",
+        percentile(sorted, 50),
+        percentile(sorted, 90),
+        percentile(sorted, 95),
+        percentile(sorted, 99),
+        percentile(sorted, 100));
+    append(
+        sb,
+        "Allocated",
+        "%.1f MB (%.1f MB per session)",
+        allocatedBytes / 1e6,
+        allocatedBytes / 1e6 / sessions);
+    append(sb, "Garbage collection", "%d collections, %d ms", gcCount, gcMillis);
+    append(
+        sb,
+        "Platform threads",
+        "peak %d, live %d",
+        threads.getPeakThreadCount(),
+        threads.getThreadCount());
+    append(sb, "Turns in flight", "peak %d", peakTurnsInFlight.get());
+    sb.append(SpeculativeOpeners.getInstance().report()).append(System.lineSeparator());
+    sb.append(ResponseCache.getInstance().report()).append(System.lineSeparator());
+    sb.append(ProxyScheduler.getInstance().report());
+    return sb.toString();
+  }
+
+  private static void append(StringBuilder sb, String label, String format, Object... args) {
+    sb.append(String.format(Locale.ROOT, "%-20s ", label + ":"));
+    sb.append(String.format(Locale.ROOT, format, args)).append(System.lineSeparator());
+  }
+
+  /** Returns the nearest-rank percentile of the sorted latencies, in milliseconds. */
+  private static long percentile(long[] sortedNanos, int percent) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percent / 100.0 * sortedNanos.length);
+    return sortedNanos[Math.max(rank, 1) - 1] / 1_000_000;
+  }
+
+  /** Returns the collection count and time, in milliseconds, summed over all collectors. */
+  private static long[] readGc() {
+    long[] totals = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      totals[0] += Math.max(gc.getCollectionCount(), 0);
+      totals[1] += Math.max(gc.getCollectionTime(), 0);
+    }
+    return totals;
+  }
+
+  private static Map<String, String> parseOptions(String[] args) {
+    List<String> known =
+        List.of(
+            "sessions",
+            "endpoint",
+            "script",
+            "think-ms",
+            "questioning-seconds",
+            "verdict-seconds",
+            "proxy-concurrency",
+            "stand-in-latency-ms");
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i < args.length; i += 2) {
+      String name = args[i].startsWith("--") ? args[i].substring(2) : "";
+      if (!known.contains(name) || i + 1 >= args.length) {
+        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+      }
+      options.put(name, args[i + 1]);
+    }
+    return options;
+  }
+
+  private static int getInt(Map<String, String> options, String name, int defaultValue) {
+    String value = options.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      int parsed = Integer.parseInt(value);
+      if (parsed >= 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    System.err.println("--" + name + " must be a non-negative number, but was given " + value);
+    System.exit(2);
+    return defaultValue;
+  }
+
+  private static List<Step> parseScript(List<String> lines) {
+    List<Step> steps = new ArrayList<>();
+    for (String raw : lines) {
+      String line = raw.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String lower = line.toLowerCase(Locale.ROOT);
+      if (lower.equals("judge")) {
+        steps.add(new Step(null, null, true, null));
+      } else if (lower.equals("verdict yes") || lower.equals("verdict no")) {
+        steps.add(new Step(null, null, false, lower.endsWith("yes")));
+      } else if (line.indexOf(':') > 0) {
+        int colon = line.indexOf(':');
+        Persona persona = findPersona(line.substring(0, colon).trim());
+        String message = line.substring(colon + 1).trim();
+        if (persona == null || message.isEmpty()) {
+          throw new IllegalArgumentException("Unknown persona or empty question: " + line);
+        }
+        steps.add(new Step(persona, message, false, null));
+      } else {
+        throw new IllegalArgumentException("Cannot parse script line: " + line);
+      }
+    }
+    return steps;
+  }
+
+  private static Persona findPersona(String name) {
+    for (Persona persona : Persona.values()) {
+      String room = persona.getPromptId().replace(".txt", "");
+      if (name.equalsIgnoreCase(room)
+          || name.equalsIgnoreCase(persona.getAbbreviation())
+          || name.equalsIgnoreCase(persona.name())) {
+        return persona;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,96 @@
+package nz.ac.auckland.se206.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A stand-in for the proxy that answers every chat completion with the same short reply after a
+ * fixed delay, so load can be generated, and chat sessions tested, without spending API credit.
+ * Requests are handled on virtual threads, so the delay does not limit how many can be in flight.
+ */
+public class LocalProxy implements AutoCloseable {
+
+  private static final String REPLY =
+      "I can only tell you what my logs show: the vehicle accelerated without warning.";
+
+  private final HttpServer server;
+  private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+  private final long latencyMillis;
+
+  /**
+   * Starts the stand-in on a free port of the loopback interface.
+   *
+   * @param latencyMillis how long to wait before answering each request
+   * @throws IOException if the server cannot be bound
+   */
+  public LocalProxy(long latencyMillis) throws IOException {
+    this.latencyMillis = latencyMillis;
+    // the default backlog of 50 would drop a burst of new connections into SYN retries
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    server = HttpServer.create(address, 4096);
+    server.createContext("/", this::handle);
+    server.setExecutor(handlers);
+    server.start();
+  }
+
+  /**
+   * Returns the base URL to point the proxy endpoints at.
+   *
+   * @return the URL, without a trailing slash
+   */
+  public String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    handlers.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      exchange.sendResponseHeaders(200, -1); // a connection being pre-opened
+      exchange.close();
+      return;
+    }
+    int promptChars;
+    try (InputStream in = exchange.getRequestBody()) {
+      promptChars = in.readAllBytes().length;
+    }
+    try {
+      Thread.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    // the same shape as the real proxy's answer, with usage estimated at four chars per token
+    byte[] body =
+        ("{\"success\":true,\"code\":0,\"message\":\"\",\"chat_completion\":{"
+                + "\"model\":\"stand-in\",\"created\":0,\"usage\":{\"prompt_tokens\":"
+                + promptChars / 4
+                + ",\"completion_tokens\":"
+                + REPLY.length() / 4
+                + ",\"total_tokens\":"
+                + (promptChars + REPLY.length()) / 4
+                + ",\"prompt_tokens_details\":{\"cached_tokens\":0}},\"choices\":[{\"index\":0,"
+                + "\"finish_reason\":\"stop\",\"message\":"
+                + "{\"role\":\"assistant\",\"content\":\""
+                + REPLY
+                + "\"}}]}}")
+            .getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package nz.ac.auckland.se206.prompts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PromptRegistry loads every prompt under "resources/prompts" once and keeps it compiled. Prompts
+ * are read through the class loader as streams so they resolve the same way from the build folder
+ * and from inside a packaged jar.
+ */
+public class PromptRegistry {
+
+  private static final String PROMPT_FOLDER = "prompts/";
+  private static final String[] BUNDLED_PROMPTS = {
+    "chat.txt", "context.txt", "delivery.txt", "patrol.txt", "security.txt", "verdict.txt"
+  };
+
+  private static final PromptRegistry INSTANCE = new PromptRegistry();
+
+  public static PromptRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  private final Map<String, PromptTemplate> templates = new ConcurrentHashMap<>();
+  private final Map<String, String> texts = new ConcurrentHashMap<>();
+
+  private PromptRegistry() {
+    for (String promptId : BUNDLED_PROMPTS) {
+      load(promptId);
+    }
+  }
+
+  /**
+   * Returns the compiled template for the given prompt file, loading it on first use if it is not
+   * one of the bundled prompts.
+   *
+   * @param promptId the file name of the prompt, e.g. "context.txt"
+   * @return the compiled template
+   * @throws IllegalArgumentException if the prompt cannot be found or read
+   */
+  public PromptTemplate get(String promptId) {
+    PromptTemplate template = templates.get(promptId);
+    return template != null ? template : load(promptId);
+  }
+
+  /**
+   * Returns the raw text of the given prompt file.
+   *
+   * @param promptId the file name of the prompt, e.g. "patrol.txt"
+   * @return the prompt text
+   * @throws IllegalArgumentException if the prompt cannot be found or read
+   */
+  public String getText(String promptId) {
+    String text = texts.get(promptId);
+    if (text == null) {
+      load(promptId);
+      text = texts.get(promptId);
+    }
+    return text;
+  }
+
+  private PromptTemplate load(String promptId) {
+    String resource = PROMPT_FOLDER + promptId;
+    try (InputStream in = PromptRegistry.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IllegalArgumentException("Prompt not found: " + resource);
+      }
+      String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      PromptTemplate template = PromptTemplate.compile(text);
+      texts.put(promptId, text);
+      templates.put(promptId, template);
+      return template;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error loading the prompt template " + resource, e);
+    }
+  }
+}
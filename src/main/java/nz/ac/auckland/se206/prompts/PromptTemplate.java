@@ -0,0 +1,100 @@
+package nz.ac.auckland.se206.prompts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prompt template compiled into alternating literal and placeholder segments. Compiling happens
+ * once when the template is loaded; rendering then walks the segments into a single pre-sized
+ * builder instead of scanning the whole text once per placeholder.
+ *
+ * <p>Placeholders have the form {@code {name}} where name is made of letters, digits and
+ * underscores. Any other braces are kept as literal text, and placeholders with no value in the
+ * data map are left untouched.
+ */
+public class PromptTemplate {
+
+  /**
+   * Compiles the given template text.
+   *
+   * @param text the raw template text
+   * @return the compiled template
+   */
+  public static PromptTemplate compile(String text) {
+    List<String> literals = new ArrayList<>();
+    List<String> placeholders = new ArrayList<>();
+    int literalStart = 0;
+    int i = 0;
+    while (i < text.length()) {
+      int end = text.charAt(i) == '{' ? findPlaceholderEnd(text, i) : -1;
+      if (end < 0) {
+        i++;
+        continue;
+      }
+      literals.add(text.substring(literalStart, i));
+      placeholders.add(text.substring(i + 1, end));
+      i = end + 1;
+      literalStart = i;
+    }
+    literals.add(text.substring(literalStart));
+    return new PromptTemplate(literals, placeholders);
+  }
+
+  private static int findPlaceholderEnd(String text, int open) {
+    int i = open + 1;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      if (c == '}') {
+        return i > open + 1 ? i : -1;
+      }
+      if (!Character.isLetterOrDigit(c) && c != '_') {
+        return -1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  // literals.size() == placeholders.size() + 1; literal i is followed by placeholder i
+  private final String[] literals;
+  private final String[] placeholders;
+  private final int literalLength;
+
+  private PromptTemplate(List<String> literals, List<String> placeholders) {
+    this.literals = literals.toArray(new String[0]);
+    this.placeholders = placeholders.toArray(new String[0]);
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalLength = length;
+  }
+
+  /**
+   * Fills the template with the provided data.
+   *
+   * @param data the values to substitute, keyed by placeholder name
+   * @return the filled template
+   */
+  public String render(Map<String, String> data) {
+    int capacity = literalLength;
+    for (String placeholder : placeholders) {
+      String value = data.get(placeholder);
+      capacity += value == null ? placeholder.length() + 2 : value.length();
+    }
+
+    StringBuilder sb = new StringBuilder(capacity);
+    for (int i = 0; i < placeholders.length; i++) {
+      sb.append(literals[i]);
+      String value = data.get(placeholders[i]);
+      if (value == null) {
+        sb.append('{').append(placeholders[i]).append('}');
+      } else {
+        sb.append(value);
+      }
+    }
+    sb.append(literals[literals.length - 1]);
+    return sb.toString();
+  }
+}
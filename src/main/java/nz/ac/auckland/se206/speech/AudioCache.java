@@ -0,0 +1,370 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyClient;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AudioCache keeps synthesized speech so a line that was spoken before plays without the two
+ * network round trips of synthesis and download. Audio is addressed by a hash of the provider,
+ * voice and text, held in a small in-memory tier and in a larger disk tier under "cache/tts" that
+ * survives restarts. Both tiers evict the least recently used audio first.
+ */
+public class AudioCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AudioCache.class);
+
+  private static final Path DISK_FOLDER = Paths.get("cache", "tts");
+  private static final long MAX_MEMORY_BYTES = 8L * 1024 * 1024;
+  private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_LATENCY_BUDGET_MILLIS = 1500;
+
+  // Opens after three failed or over-budget syntheses; one trial call after 30 seconds
+  private static final CircuitBreaker PROXY_BREAKER = new CircuitBreaker(3, 30_000);
+
+  private static final AudioCache INSTANCE = new AudioCache();
+
+  public static AudioCache getInstance() {
+    return INSTANCE;
+  }
+
+  // Least recently used first
+  private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes;
+  private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+  private AudioCache() {}
+
+  /**
+   * Returns the MP3 audio for a line, synthesizing and downloading it only on a miss. Concurrent
+   * requests for the same line share one synthesis.
+   *
+   * @param provider the speech provider
+   * @param voice the provider's voice
+   * @param text the line to speak
+   * @return the MP3 audio
+   * @throws ApiProxyException if the line has to be synthesized and that fails
+   */
+  public byte[] get(Provider provider, Voice voice, String text) throws ApiProxyException {
+    return get(provider, voice, text, ProxyScheduler.Priority.SPEECH);
+  }
+
+  private byte[] get(
+      Provider provider, Voice voice, String text, ProxyScheduler.Priority priority)
+      throws ApiProxyException {
+    String key = key(provider, voice, text);
+    byte[] audio = getCached(key);
+    if (audio != null) {
+      return audio;
+    }
+
+    CompletableFuture<byte[]> fetch = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, fetch);
+    if (existing != null) {
+      try {
+        return existing.join();
+      } catch (Exception e) {
+        throw new ApiProxyException("Problem synthesizing speech: " + e.getMessage());
+      }
+    }
+    try {
+      String audioUrl = requestAudioUrl(newRequest(provider, voice, text, priority));
+      audio = download(provider, voice, text, audioUrl);
+      fetch.complete(audio);
+      return audio;
+    } catch (ApiProxyException | RuntimeException e) {
+      fetch.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key);
+    }
+  }
+
+  /**
+   * Returns the cached audio for a line without synthesizing it on a miss.
+   *
+   * @param provider the speech provider
+   * @param voice the provider's voice
+   * @param text the line
+   * @return the MP3 audio, or null if the line is not cached
+   */
+  public byte[] peek(Provider provider, Voice voice, String text) {
+    return getCached(key(provider, voice, text));
+  }
+
+  /** Stores audio that was downloaded outside the cache, e.g. while streaming it. */
+  void store(Provider provider, Voice voice, String text, byte[] audio) {
+    put(key(provider, voice, text), audio);
+  }
+
+  /**
+   * Returns whether a line is already cached in either tier.
+   *
+   * @param provider the speech provider
+   * @param voice the provider's voice
+   * @param text the line
+   * @return true if speaking the line needs no network
+   */
+  public boolean contains(Provider provider, Voice voice, String text) {
+    String key = key(provider, voice, text);
+    synchronized (memory) {
+      if (memory.containsKey(key)) {
+        return true;
+      }
+    }
+    return Files.exists(diskPath(key));
+  }
+
+  /**
+   * Synthesizes lines that are known in advance as low-priority background jobs, one at a time,
+   * so they play instantly later. Lines that are already cached are skipped and failures are only
+   * logged.
+   *
+   * @param provider the speech provider
+   * @param voice the provider's voice
+   * @param lines the lines to prepare
+   * @return handles for cancelling the prefetches
+   */
+  public List<SpeechScheduler.Handle> prefetch(Provider provider, Voice voice, List<String> lines) {
+    List<SpeechScheduler.Handle> handles = new ArrayList<>();
+    for (String line : lines) {
+      handles.add(
+          SpeechScheduler.getInstance()
+              .submit(
+                  "prefetch",
+                  SpeechScheduler.Priority.PREFETCH,
+                  () -> {
+                    try {
+                      get(provider, voice, line, ProxyScheduler.Priority.PREFETCH);
+                    } catch (ApiProxyException e) {
+                      LOG.warn("Unable to prefetch speech: {}", e.getMessage());
+                    }
+                  },
+                  null));
+    }
+    return handles;
+  }
+
+  private byte[] getCached(String key) {
+    synchronized (memory) {
+      byte[] audio = memory.get(key);
+      if (audio != null) {
+        return audio;
+      }
+    }
+    Path path = diskPath(key);
+    try {
+      byte[] audio = Files.readAllBytes(path);
+      // the modification time doubles as the last access time for eviction
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+      putInMemory(key, audio);
+      return audio;
+    } catch (IOException e) {
+      return null; // not on disk either
+    }
+  }
+
+  private void put(String key, byte[] audio) {
+    putInMemory(key, audio);
+    try {
+      Files.createDirectories(DISK_FOLDER);
+      Path temp = Files.createTempFile(DISK_FOLDER, key, ".part");
+      Files.write(temp, audio);
+      Files.move(temp, diskPath(key), StandardCopyOption.REPLACE_EXISTING);
+      evictDisk();
+    } catch (IOException e) {
+      LOG.warn("Unable to keep speech audio on disk", e);
+    }
+  }
+
+  private void putInMemory(String key, byte[] audio) {
+    if (audio.length > MAX_MEMORY_BYTES) {
+      return;
+    }
+    synchronized (memory) {
+      byte[] previous = memory.put(key, audio);
+      memoryBytes += audio.length - (previous == null ? 0 : previous.length);
+      Iterator<byte[]> eldest = memory.values().iterator();
+      while (memoryBytes > MAX_MEMORY_BYTES && eldest.hasNext()) {
+        memoryBytes -= eldest.next().length;
+        eldest.remove();
+      }
+    }
+  }
+
+  private synchronized void evictDisk() throws IOException {
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(DISK_FOLDER)) {
+      files = stream.filter(path -> path.toString().endsWith(".mp3")).toList();
+    }
+    long total = 0;
+    for (Path file : files) {
+      total += Files.size(file);
+    }
+    if (total <= MAX_DISK_BYTES) {
+      return;
+    }
+    List<Path> oldestFirst =
+        files.stream().sorted(Comparator.comparing(AudioCache::lastModified)).toList();
+    for (Path file : oldestFirst) {
+      if (total <= MAX_DISK_BYTES) {
+        break;
+      }
+      total -= Files.size(file);
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static FileTime lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  /**
+   * Returns how long a line may take to synthesize before it is spoken locally instead. Set with
+   * -Dspeech.budget=millis.
+   *
+   * @return the latency budget in milliseconds
+   */
+  public static long getLatencyBudgetMillis() {
+    return Long.getLong("speech.budget", DEFAULT_LATENCY_BUDGET_MILLIS);
+  }
+
+  /**
+   * Builds the request that asks the proxy to synthesize a line, for {@link #requestAudioUrl}.
+   * Holding on to it lets the caller abort a synthesis nobody will play.
+   */
+  static TextToSpeechRequest newRequest(
+      Provider provider, Voice voice, String text, ProxyScheduler.Priority priority)
+      throws ApiProxyException {
+    return new TextToSpeechRequest(ApiProxyConfig.readConfig())
+        .setText(text)
+        .setProvider(provider)
+        .setVoice(voice)
+        .setPriority(priority);
+  }
+
+  /**
+   * Asks the proxy to synthesize a line and returns the URL of the audio. Calls that fail or take
+   * longer than the latency budget count against the proxy's circuit breaker, and while the circuit
+   * is open this fails immediately without contacting the proxy. Time spent queued behind other
+   * proxy calls is not held against the proxy, and neither is a call its caller aborted.
+   */
+  static String requestAudioUrl(TextToSpeechRequest request) throws ApiProxyException {
+    if (!PROXY_BREAKER.allowRequest()) {
+      throw new ApiProxyException("Speech proxy is unavailable, circuit is open");
+    }
+    long start = System.currentTimeMillis();
+    try {
+      String audioUrl = request.execute().getAudioUrl();
+      long elapsed = System.currentTimeMillis() - start - request.getQueuedMillis();
+      if (elapsed > getLatencyBudgetMillis()) {
+        PROXY_BREAKER.recordFailure();
+      } else {
+        PROXY_BREAKER.recordSuccess();
+      }
+      return audioUrl;
+    } catch (ApiProxyException | RuntimeException e) {
+      if (request.isAborted()) {
+        PROXY_BREAKER.recordAbandoned();
+      } else {
+        PROXY_BREAKER.recordFailure();
+      }
+      throw e;
+    }
+  }
+
+  /** Downloads audio that the proxy has synthesized and stores it for the line. */
+  byte[] download(Provider provider, Voice voice, String text, String audioUrl)
+      throws ApiProxyException {
+    try {
+      byte[] audio =
+          ProxyClient.getClient()
+              .execute(
+                  new HttpGet(audioUrl),
+                  response -> EntityUtils.toByteArray(checkAudio(response)));
+      put(key(provider, voice, text), audio);
+      return audio;
+    } catch (IOException e) {
+      throw new ApiProxyException("Problem downloading speech audio: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Checks that a download answered with audio, before any of it is buffered or cached. An expired
+   * audio URL answers with an error page that must never be stored as speech.
+   *
+   * @param response the response to a download of synthesized audio
+   * @return the audio entity
+   * @throws ClientProtocolException if the response is an error or not audio
+   */
+  static HttpEntity checkAudio(HttpResponse response) throws ClientProtocolException {
+    int status = response.getStatusLine().getStatusCode();
+    if (status < 200 || status >= 300) {
+      throw new ClientProtocolException("Speech audio download answered HTTP " + status);
+    }
+    HttpEntity entity = response.getEntity();
+    ContentType type = entity == null ? null : ContentType.get(entity);
+    // storage buckets often serve uploaded audio untyped, so only a stated other type is refused
+    if (entity == null
+        || (type != null
+            && !type.getMimeType().startsWith("audio/")
+            && !type.getMimeType().endsWith("/octet-stream"))) {
+      throw new ClientProtocolException(
+          "Speech audio download answered " + (type == null ? "no content" : type.getMimeType()));
+    }
+    return entity;
+  }
+
+  private static Path diskPath(String key) {
+    return DISK_FOLDER.resolve(key + ".mp3");
+  }
+
+  private static String key(Provider provider, Voice voice, String text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(provider.getProviderCode().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(voice.getVoiceCode().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(text.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
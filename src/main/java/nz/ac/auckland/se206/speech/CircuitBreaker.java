@@ -0,0 +1,97 @@
+package nz.ac.auckland.se206.speech;
+
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker for a remote service. After a run of consecutive failures the circuit opens and
+ * callers stop trying the service for a cool-down period; after that a single trial call is let
+ * through, which closes the circuit on success or opens it again on failure.
+ */
+public class CircuitBreaker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private final LongSupplier clock;
+
+  private int consecutiveFailures;
+  private long openedAt = -1;
+  private boolean trialInFlight;
+
+  /**
+   * Creates a closed circuit breaker.
+   *
+   * @param failureThreshold consecutive failures that open the circuit
+   * @param openMillis how long the circuit stays open before a trial call
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, System::currentTimeMillis);
+  }
+
+  /**
+   * Creates a closed circuit breaker that reads the time from the given clock.
+   *
+   * @param failureThreshold consecutive failures that open the circuit
+   * @param openMillis how long the circuit stays open before a trial call
+   * @param clock supplies the current time in milliseconds
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException(
+          "failureThreshold must be at least 1, but was given " + failureThreshold);
+    }
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns whether a call to the service should be attempted now.
+   *
+   * @return true if the circuit is closed, or if this caller gets the trial call
+   */
+  public synchronized boolean allowRequest() {
+    if (openedAt < 0) {
+      return true;
+    }
+    if (trialInFlight || clock.getAsLong() - openedAt < openMillis) {
+      return false;
+    }
+    trialInFlight = true;
+    return true;
+  }
+
+  /** Records a successful call, closing the circuit. */
+  public synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    openedAt = -1;
+    trialInFlight = false;
+  }
+
+  /**
+   * Records a call its caller gave up on before it finished. That says nothing about the service,
+   * so the run of failures is kept, but a trial call that was abandoned may be made again.
+   */
+  public synchronized void recordAbandoned() {
+    trialInFlight = false;
+  }
+
+  /** Records a failed or too slow call, opening the circuit once the threshold is reached. */
+  public synchronized void recordFailure() {
+    consecutiveFailures++;
+    if (trialInFlight || consecutiveFailures >= failureThreshold) {
+      if (openedAt < 0) {
+        LOG.warn("Circuit opened after {} failures", consecutiveFailures);
+      }
+      openedAt = clock.getAsLong();
+      trialInFlight = false;
+    }
+  }
+
+  public synchronized boolean isOpen() {
+    return openedAt >= 0;
+  }
+}
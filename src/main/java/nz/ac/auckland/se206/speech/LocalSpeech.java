@@ -0,0 +1,71 @@
+package nz.ac.auckland.se206.speech;
+
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.VoiceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LocalSpeech speaks lines with the bundled FreeTTS engine, entirely offline. It sounds plainer
+ * than the proxy voices but starts immediately, so it stands in whenever the proxy is slow or
+ * unreachable. The voice is loaded once, on first use or by {@link #warmUp()}.
+ */
+public class LocalSpeech {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalSpeech.class);
+
+  private static final String VOICE_NAME = "kevin16";
+
+  private static final LocalSpeech INSTANCE = new LocalSpeech();
+
+  public static LocalSpeech getInstance() {
+    return INSTANCE;
+  }
+
+  private volatile Voice voice;
+
+  private LocalSpeech() {}
+
+  /**
+   * Speaks a line on the calling thread, returning once it has finished or been stopped.
+   *
+   * @param text the line to speak
+   * @return true if the line was spoken
+   */
+  public synchronized boolean speak(String text) {
+    Voice local = getVoice();
+    if (local == null) {
+      return false;
+    }
+    LOG.debug("Speaking locally: proxy speech is unavailable");
+    return local.speak(text);
+  }
+
+  /** Loads the voice ahead of time, so a fallback does not pay for it mid-sentence. */
+  public synchronized void warmUp() {
+    getVoice();
+  }
+
+  /** Cuts off the line being spoken, if any. */
+  public void stop() {
+    Voice local = voice;
+    if (local != null && local.getAudioPlayer() != null) {
+      local.getAudioPlayer().cancel();
+    }
+  }
+
+  private Voice getVoice() {
+    if (voice == null) {
+      System.setProperty(
+          "freetts.voices", "com.sun.speech.freetts.en.us.cmu_us_kal.KevinVoiceDirectory");
+      Voice loaded = VoiceManager.getInstance().getVoice(VOICE_NAME);
+      if (loaded == null) {
+        LOG.warn("FreeTTS voice {} is not available", VOICE_NAME);
+        return null;
+      }
+      loaded.allocate();
+      voice = loaded;
+    }
+    return voice;
+  }
+}
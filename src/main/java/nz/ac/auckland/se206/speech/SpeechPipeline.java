@@ -0,0 +1,225 @@
+package nz.ac.auckland.se206.speech;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SpeechPipeline voices a reply sentence by sentence instead of as one utterance. Text is appended
+ * as it becomes available; every complete sentence is synthesized straight away, up to a small
+ * window ahead of the one playing, and sentences play back to back in their original order. The
+ * first sentence is therefore heard after one short synthesis, not after the whole reply. A
+ * sentence that misses the latency budget is spoken offline by {@link LocalSpeech}.
+ */
+public class SpeechPipeline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpeechPipeline.class);
+
+  private static final int WINDOW = 3;
+  // A sentence ends at terminal punctuation, optionally closed by a quote or bracket
+  private static final Pattern SENTENCE_END = Pattern.compile("[.!?]+[\"')\\]]*\\s+");
+  // Marks the end of the reply in the sentence queue; compared by identity
+  private static final String END = new String("");
+
+  private static final ExecutorService SYNTHESIZERS =
+      Executors.newFixedThreadPool(
+          WINDOW,
+          runnable -> {
+            Thread thread = new Thread(runnable, "tts-synthesis");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** A sentence with its synthesis, which may still be running. */
+  private static class Pending {
+    private final String sentence;
+    private final CompletableFuture<byte[]> audio;
+
+    private Pending(String sentence, CompletableFuture<byte[]> audio) {
+      this.sentence = sentence;
+      this.audio = audio;
+    }
+  }
+
+  private final Provider provider;
+  private final Voice voice;
+  private final StringBuilder partial = new StringBuilder();
+  private final BlockingQueue<String> sentences = new LinkedBlockingQueue<>();
+
+  private volatile boolean stopped;
+  private volatile CompletableFuture<byte[]> awaiting;
+  private volatile boolean speakingLocally;
+  private volatile StreamingPlayback playing;
+  private volatile long firstSentenceNanos;
+
+  /**
+   * Creates a pipeline. Nothing is spoken until {@link #play()} runs.
+   *
+   * @param provider the speech provider
+   * @param voice the provider's voice to speak in
+   */
+  public SpeechPipeline(Provider provider, Voice voice) {
+    this.provider = provider;
+    this.voice = voice;
+  }
+
+  /**
+   * Appends more of the reply. Every sentence it completes is queued for synthesis immediately.
+   *
+   * @param text the next part of the reply
+   */
+  public synchronized void append(String text) {
+    partial.append(text);
+    Matcher matcher = SENTENCE_END.matcher(partial);
+    int start = 0;
+    while (matcher.find()) {
+      offer(partial.substring(start, matcher.end()));
+      start = matcher.end();
+    }
+    partial.delete(0, start);
+  }
+
+  /** Marks the reply as complete, queuing whatever is left as the final sentence. */
+  public synchronized void finish() {
+    offer(partial.toString());
+    partial.setLength(0);
+    sentences.add(END);
+  }
+
+  /** Stops speaking; sentences already being synthesized still complete into the cache. */
+  public void stop() {
+    stopped = true;
+    sentences.add(END); // wakes a player waiting for the next sentence
+    CompletableFuture<byte[]> audio = awaiting;
+    if (audio != null) {
+      audio.cancel(false); // wakes a player waiting for audio; the synthesis itself carries on
+    }
+    StreamingPlayback playback = playing;
+    if (playback != null) {
+      playback.stop();
+    }
+    if (speakingLocally) {
+      LocalSpeech.getInstance().stop();
+    }
+  }
+
+  private void offer(String sentence) {
+    sentence = sentence.trim();
+    if (sentence.isEmpty()) {
+      return;
+    }
+    if (firstSentenceNanos == 0) {
+      firstSentenceNanos = System.nanoTime();
+    }
+    sentences.add(sentence);
+  }
+
+  /**
+   * Speaks sentences on the calling thread as they are appended, returning once the finished reply
+   * has been spoken or the pipeline is stopped.
+   */
+  public void play() {
+    Deque<Pending> window = new ArrayDeque<>();
+    boolean ended = false;
+    boolean reported = false;
+    try {
+      while (!stopped) {
+        ended = fill(window, ended);
+        Pending next = window.poll();
+        if (next == null) {
+          return; // every sentence has been spoken
+        }
+        ended = fill(window, ended);
+
+        awaiting = next.audio;
+        if (stopped) {
+          return;
+        }
+        try {
+          next.audio.get(AudioCache.getLatencyBudgetMillis(), TimeUnit.MILLISECONDS);
+        } catch (CancellationException e) {
+          return;
+        } catch (ExecutionException | TimeoutException e) {
+          // the proxy is failing or over budget, so this sentence is spoken offline
+          speakLocally(next.sentence);
+          continue;
+        }
+        if (stopped) {
+          return;
+        }
+        StreamingPlayback playback = new StreamingPlayback(provider, voice, next.sentence);
+        playing = playback;
+        if (stopped) {
+          return; // stopped before the playback could be reached
+        }
+        long untilPlay = System.nanoTime() - firstSentenceNanos;
+        playback.play();
+        if (!reported) {
+          reported = true;
+          LOG.debug(
+              "First sentence to audio: {}ms",
+              untilPlay / 1_000_000 + playback.getTimeToFirstAudioMillis());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void speakLocally(String sentence) {
+    if (stopped) {
+      return;
+    }
+    speakingLocally = true;
+    try {
+      LocalSpeech.getInstance().speak(sentence);
+    } finally {
+      speakingLocally = false;
+    }
+  }
+
+  /**
+   * Starts synthesis for queued sentences until the window is full, blocking only when nothing is
+   * pending. Returns whether the end of the reply has been reached.
+   */
+  private boolean fill(Deque<Pending> window, boolean ended) throws InterruptedException {
+    while (!ended && window.size() < WINDOW) {
+      String sentence = window.isEmpty() ? sentences.take() : sentences.poll();
+      if (sentence == null) {
+        break;
+      }
+      if (sentence == END) {
+        return true;
+      }
+      window.add(new Pending(sentence, synthesize(sentence)));
+    }
+    return ended;
+  }
+
+  private CompletableFuture<byte[]> synthesize(String sentence) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return AudioCache.getInstance().get(provider, voice, sentence);
+          } catch (ApiProxyException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+          }
+        },
+        SYNTHESIZERS);
+  }
+}
@@ -0,0 +1,210 @@
+package nz.ac.auckland.se206.speech;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SpeechScheduler runs all speech work on a small fixed pool of worker threads. Waiting jobs are
+ * ordered by priority, so narration the player is waiting for overtakes background prefetching,
+ * and jobs on the same channel run one at a time in submission order, so a speaker never talks
+ * over itself. Every submission returns a {@link Handle} that can cancel it, whether it is still
+ * queued or already running.
+ */
+public class SpeechScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpeechScheduler.class);
+
+  /** Job priorities, most urgent first. */
+  public enum Priority {
+    NARRATION,
+    PREFETCH
+  }
+
+  /** A unit of speech work, typically synthesizing or playing one line. */
+  public interface Job {
+    void run() throws Exception;
+  }
+
+  /** Lets the submitter cancel a job and check on it. */
+  public static class Handle {
+    private final Entry entry;
+
+    private Handle(Entry entry) {
+      this.entry = entry;
+    }
+
+    /** Cancels the job: a queued job never starts, and a running job is asked to stop. */
+    public void cancel() {
+      entry.cancel();
+    }
+
+    public boolean isCancelled() {
+      return entry.state == State.CANCELLED;
+    }
+
+    public boolean isDone() {
+      return entry.state == State.DONE || entry.state == State.CANCELLED;
+    }
+  }
+
+  private enum State {
+    QUEUED,
+    RUNNING,
+    DONE,
+    CANCELLED
+  }
+
+  private static final int WORKERS = 3;
+
+  private static final SpeechScheduler INSTANCE = new SpeechScheduler();
+
+  public static SpeechScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  private class Entry implements Runnable, Comparable<Entry> {
+    private final String channel;
+    private final Priority priority;
+    private final long sequence;
+    private final Job job;
+    private final Runnable onCancel;
+    private volatile State state = State.QUEUED;
+
+    private Entry(String channel, Priority priority, Job job, Runnable onCancel) {
+      this.channel = channel;
+      this.priority = priority;
+      this.sequence = nextSequence.getAndIncrement();
+      this.job = job;
+      this.onCancel = onCancel;
+    }
+
+    @Override
+    public void run() {
+      try {
+        synchronized (this) {
+          if (state == State.CANCELLED) {
+            return;
+          }
+          state = State.RUNNING;
+        }
+        job.run();
+      } catch (Exception e) {
+        LOG.warn("Speech job on " + channel + " failed", e);
+      } finally {
+        synchronized (this) {
+          if (state == State.RUNNING) {
+            state = State.DONE;
+          }
+        }
+        release(channel);
+      }
+    }
+
+    private void cancel() {
+      boolean running;
+      synchronized (this) {
+        if (state == State.DONE || state == State.CANCELLED) {
+          return;
+        }
+        running = state == State.RUNNING;
+        state = State.CANCELLED;
+      }
+      if (running && onCancel != null) {
+        onCancel.run();
+      }
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      int byPriority = priority.compareTo(other.priority);
+      return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private final AtomicLong nextSequence = new AtomicLong();
+  private final ThreadPoolExecutor workers;
+  // Jobs waiting for their channel; a channel is busy while it has an entry in this map
+  private final Map<String, Deque<Entry>> channels = new HashMap<>();
+
+  private SpeechScheduler() {
+    AtomicInteger count = new AtomicInteger();
+    workers =
+        new ThreadPoolExecutor(
+            WORKERS,
+            WORKERS,
+            0,
+            TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "speech-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Submits a job.
+   *
+   * @param channel the channel to serialize on, e.g. the speaker's name, or null for none
+   * @param priority the job's priority
+   * @param job the work to run
+   * @param onCancel called if the job is cancelled while running, or null
+   * @return a handle for cancelling the job
+   */
+  public Handle submit(String channel, Priority priority, Job job, Runnable onCancel) {
+    Entry entry = new Entry(channel, priority, job, onCancel);
+    if (channel == null) {
+      workers.execute(entry);
+      return new Handle(entry);
+    }
+    synchronized (channels) {
+      Deque<Entry> waiting = channels.get(channel);
+      if (waiting == null) {
+        channels.put(channel, new ArrayDeque<>());
+        workers.execute(entry);
+      } else {
+        waiting.add(entry);
+      }
+    }
+    return new Handle(entry);
+  }
+
+  /**
+   * Returns the number of jobs waiting for a worker or for their channel.
+   *
+   * @return the queue length
+   */
+  public int getQueuedCount() {
+    synchronized (channels) {
+      int waiting = 0;
+      for (Deque<Entry> entries : channels.values()) {
+        waiting += entries.size();
+      }
+      return workers.getQueue().size() + waiting;
+    }
+  }
+
+  private void release(String channel) {
+    if (channel == null) {
+      return;
+    }
+    synchronized (channels) {
+      Deque<Entry> waiting = channels.get(channel);
+      Entry next = waiting.poll();
+      if (next == null) {
+        channels.remove(channel);
+      } else {
+        workers.execute(next);
+      }
+    }
+  }
+}
@@ -0,0 +1,368 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.Player;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyClient;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StreamingPlayback plays one spoken line, decoding the MP3 while it is still downloading instead
+ * of after the whole file has arrived. The download runs over the shared proxy client into a
+ * bounded ring buffer, and decoding starts as soon as a few frames are buffered. Once complete,
+ * the audio is added to the {@link AudioCache}, and a cached line is played straight from memory.
+ *
+ * <p>When the proxy is slow or down, as judged by the {@link AudioCache} latency budget and circuit
+ * breaker, the line is spoken offline by {@link LocalSpeech} so narration never stalls.
+ *
+ * <p>A playback can be stopped from any thread at any point, which aborts the synthesis and the
+ * download and closes the decoder. This is used for barge-in, when the player moves on before the
+ * line has finished.
+ */
+public class StreamingPlayback {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamingPlayback.class);
+
+  private static final int BUFFER_BYTES = 256 * 1024;
+  // About a quarter of a second of speech at the proxy's bitrates
+  private static final int START_THRESHOLD_BYTES = 8 * 1024;
+  private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+  private static final int READ_TIMEOUT_MILLIS = 5000;
+  // A stream that neither side has touched for this long has stalled, and is given up on
+  private static final long STALL_TIMEOUT_MILLIS = CONNECT_TIMEOUT_MILLIS + READ_TIMEOUT_MILLIS;
+
+  // Downloads feed decoders that are already running, so they get their own bounded pool
+  private static final ExecutorService DOWNLOADERS =
+      Executors.newFixedThreadPool(
+          3,
+          runnable -> {
+            Thread thread = new Thread(runnable, "tts-download");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // Syntheses mostly wait on the proxy, and late ones carry on into the cache after playback gave
+  // up on them, so they run on cheap virtual threads rather than holding a download thread
+  private static final ExecutorService SYNTHESIZERS =
+      Executors.newThreadPerTaskExecutor(
+          Thread.ofVirtual().name("tts-stream-synthesis-", 0).factory());
+
+  /**
+   * A bounded single-producer single-consumer byte queue. Reads block until the start threshold is
+   * buffered, so the decoder is not starved right after it starts. A side left waiting without any
+   * change for the stall timeout fails with an {@link IOException}, so neither the decoder nor the
+   * download can block forever when the other never arrives.
+   */
+  private static class RingBuffer extends InputStream {
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private int readIndex;
+    private int size;
+    private boolean started;
+    private boolean finished;
+    private boolean closed;
+    private long lastChangeNanos = System.nanoTime();
+
+    private synchronized void write(byte[] data, int length) throws IOException {
+      int offset = 0;
+      while (offset < length) {
+        while (size == buffer.length && !closed) {
+          waitForChange();
+        }
+        if (closed) {
+          throw new IOException("Playback stopped");
+        }
+        int writeIndex = (readIndex + size) % buffer.length;
+        int free = Math.min(buffer.length - size, buffer.length - writeIndex);
+        int chunk = Math.min(length - offset, free);
+        System.arraycopy(data, offset, buffer, writeIndex, chunk);
+        size += chunk;
+        offset += chunk;
+        started |= size >= START_THRESHOLD_BYTES;
+        changed();
+      }
+    }
+
+    private synchronized void finish() {
+      finished = true;
+      changed();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] data, int offset, int length) throws IOException {
+      while (!closed && (size == 0 || !started) && !finished) {
+        waitForChange();
+      }
+      if (closed || size == 0) {
+        return -1;
+      }
+      int chunk = Math.min(length, Math.min(size, buffer.length - readIndex));
+      System.arraycopy(buffer, readIndex, data, offset, chunk);
+      readIndex = (readIndex + chunk) % buffer.length;
+      size -= chunk;
+      changed();
+      return chunk;
+    }
+
+    @Override
+    public synchronized void close() {
+      closed = true;
+      changed();
+    }
+
+    private void changed() {
+      lastChangeNanos = System.nanoTime();
+      notifyAll();
+    }
+
+    private void waitForChange() throws IOException {
+      long idleMillis = (System.nanoTime() - lastChangeNanos) / 1_000_000;
+      if (idleMillis >= STALL_TIMEOUT_MILLIS) {
+        throw new IOException("Audio stream stalled for " + idleMillis + "ms");
+      }
+      try {
+        wait(STALL_TIMEOUT_MILLIS - idleMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while streaming audio", e);
+      }
+    }
+  }
+
+  private final Provider provider;
+  private final Voice voice;
+  private final String text;
+
+  private volatile boolean stopped;
+  private volatile TextToSpeechRequest synthesis;
+  private volatile HttpGet download;
+  private volatile RingBuffer ring;
+  private volatile Player player;
+  private volatile long timeToFirstAudioMillis = -1;
+  private volatile boolean speakingLocally;
+
+  public StreamingPlayback(Provider provider, Voice voice, String text) {
+    this.provider = provider;
+    this.voice = voice;
+    this.text = text;
+  }
+
+  /**
+   * Synthesizes, downloads and plays the line on the calling thread, returning once it has
+   * finished playing or has been stopped. If the proxy cannot synthesize the line within the
+   * latency budget the line is spoken locally instead.
+   */
+  public void play() {
+    long start = System.nanoTime();
+    byte[] cached = AudioCache.getInstance().peek(provider, voice, text);
+    InputStream source;
+    if (cached != null) {
+      source = new ByteArrayInputStream(cached);
+    } else {
+      String audioUrl = awaitAudioUrl();
+      if (audioUrl == null) {
+        playLocally(start);
+        return;
+      }
+      RingBuffer buffer = new RingBuffer();
+      ring = buffer;
+      source = buffer;
+      DOWNLOADERS.execute(() -> download(audioUrl, buffer));
+    }
+    if (stopped) {
+      return;
+    }
+
+    try {
+      player = new Player(source);
+      // decode frame by frame so a stop takes effect between frames
+      boolean more = player.play(1);
+      timeToFirstAudioMillis = (System.nanoTime() - start) / 1_000_000;
+      LOG.debug(
+          "Time to first audio: {}ms ({})",
+          timeToFirstAudioMillis,
+          cached != null ? "cached" : "streamed");
+      while (more && !stopped) {
+        more = player.play(1);
+      }
+    } catch (JavaLayerException e) {
+      if (!stopped) {
+        LOG.warn("Unable to decode speech audio", e);
+      }
+    } finally {
+      stop();
+    }
+  }
+
+  /**
+   * Stops the playback, aborting the synthesis and download if they are still running. Safe to
+   * call repeatedly.
+   */
+  public void stop() {
+    stopped = true;
+    TextToSpeechRequest pending = synthesis;
+    if (pending != null) {
+      pending.abort();
+    }
+    HttpGet request = download;
+    if (request != null) {
+      request.abort();
+    }
+    RingBuffer buffer = ring;
+    if (buffer != null) {
+      buffer.close();
+    }
+    Player decoder = player;
+    if (decoder != null) {
+      decoder.close();
+    }
+    if (speakingLocally) {
+      LocalSpeech.getInstance().stop();
+    }
+  }
+
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Returns how long the line took from {@link #play()} to its first decoded frame.
+   *
+   * @return the time in milliseconds, or -1 if no audio has played yet
+   */
+  public long getTimeToFirstAudioMillis() {
+    return timeToFirstAudioMillis;
+  }
+
+  /**
+   * Waits up to the latency budget for the proxy to synthesize the line, or returns null. A stop
+   * while waiting aborts the synthesis, while one that runs out of budget carries on into the
+   * cache behind the speech that is being waited for.
+   */
+  private String awaitAudioUrl() {
+    TextToSpeechRequest request;
+    try {
+      request = AudioCache.newRequest(provider, voice, text, ProxyScheduler.Priority.SPEECH);
+    } catch (ApiProxyException e) {
+      LOG.warn("Speech synthesis failed: {}", e.getMessage());
+      return null;
+    }
+    synthesis = request;
+    if (stopped) {
+      return null; // stop() may have missed the request
+    }
+    CompletableFuture<String> result =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return AudioCache.requestAudioUrl(request);
+              } catch (ApiProxyException e) {
+                throw new CompletionException(e);
+              }
+            },
+            SYNTHESIZERS);
+    try {
+      return result.get(AudioCache.getLatencyBudgetMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // let the slow synthesis finish into the cache, so the line plays properly next time, but
+      // as a prefetch that no longer outranks speech someone is waiting for
+      synthesis = null;
+      request.setPriority(ProxyScheduler.Priority.PREFETCH);
+      result.thenAcceptAsync(
+          audioUrl -> {
+            try {
+              AudioCache.getInstance().download(provider, voice, text, audioUrl);
+            } catch (ApiProxyException ex) {
+              LOG.warn("Unable to cache late speech audio: {}", ex.getMessage());
+            }
+          },
+          SYNTHESIZERS);
+      LOG.warn("Speech synthesis exceeded its latency budget");
+      return null;
+    } catch (ExecutionException e) {
+      if (!stopped) {
+        LOG.warn("Speech synthesis failed: {}", e.getCause().getMessage());
+      }
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      request.abort();
+      return null;
+    }
+  }
+
+  private void playLocally(long start) {
+    if (stopped) {
+      return;
+    }
+    speakingLocally = true;
+    try {
+      timeToFirstAudioMillis = (System.nanoTime() - start) / 1_000_000;
+      LocalSpeech.getInstance().speak(text);
+    } finally {
+      speakingLocally = false;
+    }
+  }
+
+  private void download(String audioUrl, RingBuffer buffer) {
+    HttpGet request = new HttpGet(audioUrl);
+    // keeps the pool's timeout for a free connection, but gives up on a slow stream sooner
+    request.setConfig(
+        RequestConfig.copy(ProxyClient.getRequestConfig())
+            .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+            .setSocketTimeout(READ_TIMEOUT_MILLIS)
+            .build());
+    download = request;
+    if (stopped) {
+      return;
+    }
+    try {
+      byte[] audio =
+          ProxyClient.getClient()
+              .execute(
+                  request,
+                  response -> {
+                    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+                    byte[] chunk = new byte[8192];
+                    try (InputStream in = AudioCache.checkAudio(response).getContent()) {
+                      int read;
+                      while ((read = in.read(chunk)) > 0) {
+                        buffer.write(chunk, read);
+                        copy.write(chunk, 0, read);
+                      }
+                    }
+                    return copy.toByteArray();
+                  });
+      AudioCache.getInstance().store(provider, voice, text, audio);
+    } catch (IOException e) {
+      if (!stopped) {
+        LOG.warn("Unable to stream speech audio: {}", e.getMessage());
+      }
+    } finally {
+      buffer.finish();
+    }
+  }
+}
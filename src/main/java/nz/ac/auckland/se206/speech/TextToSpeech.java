@@ -1,65 +1,101 @@
 package nz.ac.auckland.se206.speech;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import javafx.concurrent.Task;
-import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.Player;
-import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
-import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
-import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
+import java.util.List;
 import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
 import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
-import nz.ac.auckland.apiproxy.tts.TextToSpeechResult;
+import nz.ac.auckland.se206.speech.SpeechScheduler.Handle;
+import nz.ac.auckland.se206.speech.SpeechScheduler.Priority;
 
-/** A utility class for converting text to speech using the specified API proxy. */
+/**
+ * A utility class for converting text to speech using the specified API proxy. All speech runs on
+ * the {@link SpeechScheduler}, so narration and replies never overlap themselves and the number of
+ * speech threads stays fixed however many lines are requested.
+ */
 public class TextToSpeech {
 
+  public static final Provider PROVIDER = Provider.GOOGLE;
+  public static final Voice VOICE = Voice.GOOGLE_EN_US_STANDARD_H;
+
+  private static final String NARRATOR = "narrator";
+
+  private static volatile Handle currentLine;
+  private static volatile Handle currentReply;
+
+  /**
+   * Returns whether persona replies are voiced. On unless started with -Dspeech.replies=false.
+   *
+   * @return true if replies should be spoken
+   */
+  public static boolean isVoicingReplies() {
+    return !"false".equals(System.getProperty("speech.replies"));
+  }
+
+  /**
+   * Prepares lines that are known in advance, such as the verdict outcome, so they play instantly
+   * when spoken. Prefetching yields to any narration the player is waiting for.
+   *
+   * @param lines the lines to prepare
+   * @return handles for cancelling the prefetches
+   */
+  public static List<Handle> prefetch(String... lines) {
+    return AudioCache.getInstance().prefetch(PROVIDER, VOICE, List.of(lines));
+  }
+
   /**
-   * Converts the given text to speech and plays the audio.
+   * Converts the given text to speech and plays the audio as it downloads, after any line the
+   * narrator is already speaking. Lines spoken before, or prefetched through {@link #prefetch},
+   * play from the cache without any network calls.
    *
    * @param text the text to be converted to speech
+   * @return a handle that cancels the line whether it is queued or playing
    * @throws IllegalArgumentException if the text is null or empty
    */
-  public static void speak(String text) {
+  public static Handle speak(String text) {
     if (text == null || text.isEmpty()) {
       throw new IllegalArgumentException("Text should not be null or empty");
     }
 
-    Task<Void> backgroundTask =
-        new Task<>() {
-          @Override
-          protected Void call() {
-            try {
-              ApiProxyConfig config = ApiProxyConfig.readConfig();
-              Provider provider = Provider.GOOGLE;
-              Voice voice = Voice.GOOGLE_EN_US_STANDARD_H;
-
-              TextToSpeechRequest ttsRequest = new TextToSpeechRequest(config);
-              ttsRequest.setText(text).setProvider(provider).setVoice(voice);
-
-              TextToSpeechResult ttsResult = ttsRequest.execute();
-              String audioUrl = ttsResult.getAudioUrl();
-
-              try (InputStream inputStream =
-                  new BufferedInputStream(new URL(audioUrl).openStream())) {
-                Player player = new Player(inputStream);
-                player.play();
-              } catch (JavaLayerException | IOException e) {
-                e.printStackTrace();
-              }
+    StreamingPlayback playback = new StreamingPlayback(PROVIDER, VOICE, text);
+    Handle handle =
+        SpeechScheduler.getInstance()
+            .submit(NARRATOR, Priority.NARRATION, playback::play, playback::stop);
+    currentLine = handle;
+    return handle;
+  }
 
-            } catch (ApiProxyException e) {
-              e.printStackTrace();
-            }
-            return null;
-          }
-        };
+  /**
+   * Speaks a persona's reply in the given voice, sentence by sentence, cutting off any reply that
+   * is still being spoken.
+   *
+   * @param speaker the persona speaking, so its replies never overlap
+   * @param voice the persona's voice
+   * @param reply the reply text
+   * @return a handle that cancels the reply, or null if replies are not voiced
+   */
+  public static Handle speakReply(String speaker, Voice voice, String reply) {
+    if (!isVoicingReplies() || reply == null || reply.isBlank()) {
+      return null;
+    }
+    stop();
+    SpeechPipeline pipeline = new SpeechPipeline(PROVIDER, voice);
+    pipeline.append(reply);
+    pipeline.finish();
+    Handle handle =
+        SpeechScheduler.getInstance()
+            .submit(speaker, Priority.NARRATION, pipeline::play, pipeline::stop);
+    currentReply = handle;
+    return handle;
+  }
 
-    Thread backgroundThread = new Thread(backgroundTask);
-    backgroundThread.setDaemon(true); // Ensure the thread does not prevent JVM shutdown
-    backgroundThread.start();
+  /** Stops the most recent line and reply, e.g. when the player switches rooms or starts typing. */
+  public static void stop() {
+    Handle line = currentLine;
+    if (line != null) {
+      line.cancel();
+    }
+    Handle reply = currentReply;
+    if (reply != null) {
+      reply.cancel();
+    }
   }
 }
@@ -0,0 +1,171 @@
+package nz.ac.auckland.se206.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+
+/**
+ * A chat transcript shown as a virtualized list. Only the visible messages have cells, and those
+ * cells are recycled as the list scrolls, so the cost of a frame does not grow with the length of
+ * the trial. Messages may be appended from any thread; they are queued and flushed onto the list
+ * together, at most once per pulse, while the log is attached to a scene. The flushing timer only
+ * runs while something is queued, so an idle log costs nothing per pulse. Only the most recent
+ * {@link #MAX_MESSAGES} messages are kept.
+ */
+public class ChatLog extends ListView<ChatLog.Message> {
+
+  public static final int MAX_MESSAGES = 500;
+
+  /** One line of the transcript. */
+  public static class Message {
+    private final String speaker;
+    private final String text;
+
+    public Message(String speaker, String text) {
+      this.speaker = speaker;
+      this.text = text;
+    }
+
+    public String getSpeaker() {
+      return speaker;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    @Override
+    public String toString() {
+      return speaker + ": " + text;
+    }
+  }
+
+  private static class MessageCell extends ListCell<Message> {
+    private MessageCell() {
+      setWrapText(true);
+      setPrefWidth(0); // lets the text wrap to the width of the list instead of widening it
+    }
+
+    @Override
+    protected void updateItem(Message message, boolean empty) {
+      super.updateItem(message, empty);
+      setText(empty || message == null ? null : message.toString());
+    }
+  }
+
+  private final Queue<Message> pending = new ConcurrentLinkedQueue<>();
+  private volatile boolean clearPending;
+  private volatile long retainedChars;
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+  private final AnimationTimer flusher =
+      new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+          flush();
+          // idle until the next append or clear; one arriving after the flush requests its own
+          flushRequested.set(false);
+          stop();
+          if (!pending.isEmpty() || clearPending) {
+            requestFlush();
+          }
+        }
+      };
+
+  /** Creates an empty chat log. */
+  public ChatLog() {
+    setCellFactory(list -> new MessageCell());
+    setFocusTraversable(false);
+    // Only flush while the log can be seen; anything appended meanwhile waits in the queue
+    sceneProperty()
+        .addListener(
+            (observable, oldScene, newScene) -> {
+              if (newScene == null) {
+                flusher.stop();
+              } else if (flushRequested.get()) {
+                flusher.start();
+              }
+            });
+  }
+
+  /**
+   * Queues a message for display. Safe to call from any thread.
+   *
+   * @param speaker the label shown before the message
+   * @param text the message text
+   */
+  public void append(String speaker, String text) {
+    pending.add(new Message(speaker, text));
+    requestFlush();
+  }
+
+  /** Removes every message, including any still queued. Safe to call from any thread. */
+  public void clear() {
+    pending.clear();
+    clearPending = true;
+    requestFlush();
+  }
+
+  /**
+   * Returns the number of characters held by the log, counting queued messages once flushed.
+   *
+   * @return the retained character count
+   */
+  public long getRetainedChars() {
+    return retainedChars;
+  }
+
+  /** Starts the flushing timer on the FX thread, unless it is already running or requested. */
+  private void requestFlush() {
+    if (!flushRequested.compareAndSet(false, true)) {
+      return;
+    }
+    if (Platform.isFxApplicationThread()) {
+      startFlushing();
+    } else {
+      Platform.runLater(this::startFlushing);
+    }
+  }
+
+  private void startFlushing() {
+    if (getScene() != null) {
+      flusher.start(); // otherwise it starts once the log is attached to a scene
+    }
+  }
+
+  private void flush() {
+    if (clearPending) {
+      clearPending = false;
+      getItems().clear();
+      retainedChars = 0;
+    }
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    List<Message> batch = new ArrayList<>();
+    long chars = retainedChars;
+    for (Message message = pending.poll(); message != null; message = pending.poll()) {
+      batch.add(message);
+      chars += message.getText().length();
+    }
+    getItems().addAll(batch); // one change event, and one layout, for the whole batch
+
+    int excess = getItems().size() - MAX_MESSAGES;
+    if (excess > 0) {
+      List<Message> dropped = getItems().subList(0, excess);
+      for (Message message : dropped) {
+        chars -= message.getText().length();
+      }
+      dropped.clear();
+    }
+    retainedChars = chars;
+    scrollTo(getItems().size() - 1);
+  }
+}
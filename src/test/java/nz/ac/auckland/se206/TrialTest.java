@@ -0,0 +1,103 @@
+package nz.ac.auckland.se206;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.se206.Trial.Phase;
+import nz.ac.auckland.se206.chat.ChatEngine;
+import nz.ac.auckland.se206.chat.GlobalChatHistory;
+import nz.ac.auckland.se206.chat.Persona;
+import nz.ac.auckland.se206.chat.PersonaSession;
+import nz.ac.auckland.se206.loadtest.StandInProxy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TrialTest {
+
+  static {
+    StandInProxy.start(); // every turn takes 1.5 s
+  }
+
+  private final ChatEngine engine =
+      new ChatEngine(ApiProxyConfig.of("test", "test@localhost"), new GlobalChatHistory());
+  private final Trial trial = new Trial(engine, 3, 2);
+  private final List<Phase> phases = new ArrayList<>();
+
+  @BeforeEach
+  public void setUp() {
+    trial.addPhaseListener(phases::add);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    engine.shutdown();
+  }
+
+  @Test
+  public void testTicksThroughBothPhases() {
+    trial.tick();
+    trial.tick();
+    assertEquals(Phase.QUESTIONING, trial.getPhase());
+    assertEquals(1, trial.getSecondsLeft());
+
+    trial.tick();
+    assertEquals(Phase.VERDICT, trial.getPhase());
+    assertEquals(2, trial.getSecondsLeft());
+
+    trial.tick();
+    trial.tick();
+    trial.tick(); // a finished trial ignores the clock
+    assertEquals(Phase.FINISHED, trial.getPhase());
+    assertEquals(0, trial.getSecondsLeft());
+    assertEquals(List.of(Phase.VERDICT, Phase.FINISHED), phases);
+    assertNull(trial.getVerdict());
+  }
+
+  @Test
+  public void testJudgeEndsQuestioningEarly() {
+    trial.judge();
+    trial.judge(); // only questioning can be ended this way
+
+    assertEquals(Phase.VERDICT, trial.getPhase());
+    assertEquals(2, trial.getSecondsLeft());
+    assertEquals(List.of(Phase.VERDICT), phases);
+  }
+
+  @Test
+  public void testDecideRecordsTheVerdictAndFinishes() {
+    assertNull(trial.decide(true)); // ignored while questioning
+    trial.judge();
+
+    String outcome = trial.decide(false);
+    assertNotNull(outcome);
+    assertFalse(outcome.isEmpty());
+    assertEquals(Boolean.FALSE, trial.getVerdict());
+    assertEquals(Phase.FINISHED, trial.getPhase());
+    assertNull(trial.decide(true)); // the verdict is given once
+    assertEquals(Boolean.FALSE, trial.getVerdict());
+    assertEquals(List.of(Phase.VERDICT, Phase.FINISHED), phases);
+  }
+
+  @Test
+  public void testEndOfQuestioningCancelsTurnsInFlight() throws Exception {
+    PersonaSession session = engine.getSession(Persona.SENTINEL);
+    CompletableFuture<ChatMessage> reply = session.send("What did your sensors record?", null);
+
+    long judged = System.nanoTime();
+    trial.judge();
+    assertNull(reply.get(5, TimeUnit.SECONDS));
+    long waitedMillis = (System.nanoTime() - judged) / 1_000_000;
+    assertTrue(waitedMillis < StandInProxy.LATENCY_MILLIS, "waited " + waitedMillis + "ms");
+    assertEquals(1, session.getTranscript().size()); // just the persona prompt
+  }
+}
@@ -0,0 +1,38 @@
+package nz.ac.auckland.se206.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class GlobalChatHistoryTest {
+
+  private static final String KENJI = "Kenji Tanaka";
+  private static final String SENTINEL = "Sentinel";
+
+  @Test
+  public void testSetupEntriesAreNotDialogue() {
+    GlobalChatHistory history = new GlobalChatHistory();
+    String before = history.buildExternalContext(KENJI, 25);
+    history.add(SENTINEL, "system", GlobalChatHistory.PROMPT_INITIALISED);
+    String after = history.buildExternalContext(KENJI, 25);
+
+    assertNotEquals(before, after);
+    assertEquals(
+        GlobalChatHistory.withoutSetupEntries(before),
+        GlobalChatHistory.withoutSetupEntries(after));
+  }
+
+  @Test
+  public void testDialogueAfterSetupStillCounts() {
+    GlobalChatHistory history = new GlobalChatHistory();
+    history.add(SENTINEL, "system", GlobalChatHistory.PROMPT_INITIALISED);
+    String before = history.buildExternalContext(KENJI, 25);
+    history.add(SENTINEL, "user", "What did your sensors record?");
+    String after = history.buildExternalContext(KENJI, 25);
+
+    assertNotEquals(
+        GlobalChatHistory.withoutSetupEntries(before),
+        GlobalChatHistory.withoutSetupEntries(after));
+  }
+}
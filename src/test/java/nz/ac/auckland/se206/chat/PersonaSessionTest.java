@@ -0,0 +1,130 @@
+package nz.ac.auckland.se206.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.se206.loadtest.StandInProxy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PersonaSessionTest {
+
+  static {
+    StandInProxy.start(); // every turn takes 1.5 s
+  }
+
+  private final GlobalChatHistory history = new GlobalChatHistory();
+  private final AtomicInteger remainingSeconds = new AtomicInteger(Integer.MAX_VALUE);
+  private final CountDownLatch failures = new CountDownLatch(1);
+  private ChatEngine engine;
+  private PersonaSession session;
+
+  @BeforeEach
+  public void setUp() throws ApiProxyException {
+    engine = new ChatEngine(ApiProxyConfig.of("test", "test@localhost"), history);
+    engine.setRemainingTime(remainingSeconds::get);
+    session = engine.getSession(Persona.KENJI_TANAKA);
+    session.addListener(
+        new PersonaSession.Listener() {
+          @Override
+          public void onMessage(ChatMessage message) {}
+
+          @Override
+          public void onTurnFailed() {
+            failures.countDown();
+          }
+
+          @Override
+          public void onBusyChanged(boolean busy) {}
+        },
+        Runnable::run);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    engine.shutdown();
+  }
+
+  @Test
+  public void testFailedTurnLeavesNoTrace() throws Exception {
+    remainingSeconds.set(1); // the turn runs past the end of the phase
+
+    assertNull(session.send("Are you okay?", null).get(5, TimeUnit.SECONDS));
+    assertTrue(failures.await(1, TimeUnit.SECONDS));
+    assertEquals(1, session.getTranscript().size()); // just the persona prompt
+    String conversationId = Persona.KENJI_TANAKA.getConversationId();
+    assertFalse(history.contains(conversationId, "user", "Are you okay?"));
+  }
+
+  @Test
+  public void testCommittedTurnIsRecordedInTheHistory() throws Exception {
+    ChatMessage reply = session.send("Are you okay?", null).get(5, TimeUnit.SECONDS);
+
+    List<ChatMessage> transcript = session.getTranscript();
+    assertEquals(3, transcript.size());
+    assertEquals("Are you okay?", transcript.get(1).getContent());
+    assertEquals(reply.getContent(), transcript.get(2).getContent());
+    String conversationId = Persona.KENJI_TANAKA.getConversationId();
+    assertTrue(history.contains(conversationId, "user", "Are you okay?"));
+    assertTrue(history.contains(conversationId, "assistant", reply.getContent()));
+  }
+
+  @Test
+  public void testSendsMessagesTypedDuringATurnTogetherOnceItLands() throws Exception {
+    CompletableFuture<ChatMessage> first = session.send("What happened?", null);
+    CompletableFuture<ChatMessage> second = session.send("Were you hurt?", null);
+    CompletableFuture<ChatMessage> third = session.send("Who pushed you?", null);
+    assertSame(second, third); // queued messages share the reply of their combined turn
+    assertEquals(4, session.getTranscript().size()); // shown as sent, before any reply
+
+    assertNotNull(first.get(5, TimeUnit.SECONDS));
+    assertNotNull(third.get(5, TimeUnit.SECONDS));
+    List<ChatMessage> transcript = session.getTranscript();
+    assertEquals(5, transcript.size());
+    assertEquals("What happened?", transcript.get(1).getContent());
+    assertEquals("Were you hurt?\nWho pushed you?", transcript.get(3).getContent());
+    assertFalse(session.isBusy());
+  }
+
+  @Test
+  public void testSendsAFailedMessageAgainWithTheOnesTypedAfterIt() throws Exception {
+    // the first turn runs past the end of the phase, but the turn after it has time
+    AtomicInteger turns = new AtomicInteger();
+    engine.setRemainingTime(() -> turns.getAndIncrement() == 0 ? 1 : Integer.MAX_VALUE);
+    CompletableFuture<ChatMessage> first = session.send("What happened?", null);
+    CompletableFuture<ChatMessage> second = session.send("And then?", null);
+
+    assertNotNull(first.get(5, TimeUnit.SECONDS));
+    assertSame(second.get(5, TimeUnit.SECONDS), first.get());
+    List<ChatMessage> transcript = session.getTranscript();
+    assertEquals(3, transcript.size());
+    assertEquals("What happened?\nAnd then?", transcript.get(1).getContent());
+    assertEquals(1, failures.getCount()); // nothing was dropped
+  }
+
+  @Test
+  public void testCancelDropsTheTurnAndTheMessagesQueuedBehindIt() throws Exception {
+    CompletableFuture<ChatMessage> first = session.send("What happened?", null);
+    CompletableFuture<ChatMessage> second = session.send("And then?", null);
+    session.cancel();
+
+    assertNull(first.get(5, TimeUnit.SECONDS));
+    assertNull(second.get(5, TimeUnit.SECONDS));
+    assertTrue(failures.await(1, TimeUnit.SECONDS));
+    assertEquals(1, session.getTranscript().size());
+    assertFalse(session.isBusy());
+  }
+}
@@ -0,0 +1,72 @@
+package nz.ac.auckland.se206.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+
+  private static final String CONTEXT = "Nothing has happened in the other rooms yet.";
+
+  private final ResponseCache cache = new ResponseCache();
+  private final ChatMessage reply = new ChatMessage("assistant", "You were about to be hit.");
+  private final Conversation answered =
+      Conversation.EMPTY.append("user", "why did you push him").append(reply);
+
+  @Test
+  public void testServesARewordedQuestion() {
+    cache.store(Persona.STREET_ASSIST, "why did you push him", CONTEXT, answered, reply);
+
+    assertEquals(
+        reply, cache.lookup(Persona.STREET_ASSIST, "Why did you push Kenji?", CONTEXT, answered));
+  }
+
+  @Test
+  public void testDoesNotServeANegatedQuestion() {
+    cache.store(Persona.STREET_ASSIST, "why did you push him", CONTEXT, answered, reply);
+
+    assertNull(cache.lookup(Persona.STREET_ASSIST, "why didn't you push him", CONTEXT, answered));
+    assertNull(
+        cache.lookup(Persona.STREET_ASSIST, "Why didn't you push Kenji?", CONTEXT, answered));
+  }
+
+  @Test
+  public void testDoesNotServeAQuestionAboutSomethingElse() {
+    cache.store(Persona.STREET_ASSIST, "why did you push him", CONTEXT, answered, reply);
+
+    assertNull(cache.lookup(Persona.STREET_ASSIST, "why did you push the car", CONTEXT, answered));
+  }
+
+  @Test
+  public void testKeepsPersonaNamesApart() {
+    Conversation kenji = Conversation.EMPTY.append("user", "did Kenji see it").append(reply);
+    cache.store(Persona.STREET_ASSIST, "did Kenji see it", CONTEXT, kenji, reply);
+
+    assertNull(cache.lookup(Persona.STREET_ASSIST, "did Sentinel see it", CONTEXT, kenji));
+    assertNull(cache.lookup(Persona.STREET_ASSIST, "did Sentinel Unit see it", CONTEXT, kenji));
+    // "he" can only be Kenji, but "she" is no one in the case
+    assertEquals(reply, cache.lookup(Persona.STREET_ASSIST, "did he see it", CONTEXT, kenji));
+    assertNull(cache.lookup(Persona.STREET_ASSIST, "did she see it", CONTEXT, kenji));
+  }
+
+  @Test
+  public void testDoesNotServeAReplyMadeInAnotherContext() {
+    cache.store(Persona.STREET_ASSIST, "why did you push him", CONTEXT, answered, reply);
+
+    assertNull(
+        cache.lookup(Persona.STREET_ASSIST, "why did you push him", CONTEXT + " Now...", answered));
+    assertNull(cache.lookup(Persona.SENTINEL, "why did you push him", CONTEXT, answered));
+  }
+
+  @Test
+  public void testDoesNotServeAReplyOnceTheConversationMovedOn() {
+    cache.store(Persona.STREET_ASSIST, "why did you push him", CONTEXT, answered, reply);
+    Conversation later =
+        answered.append("user", "He says the car was fine.").append("assistant", "It was not.");
+
+    assertNull(cache.lookup(Persona.STREET_ASSIST, "why did you push him", CONTEXT, later));
+  }
+}
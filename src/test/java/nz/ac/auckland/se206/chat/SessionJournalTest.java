@@ -0,0 +1,111 @@
+package nz.ac.auckland.se206.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SessionJournalTest {
+
+  private static final String KENJI = "Kenji Tanaka";
+
+  @TempDir Path directory;
+
+  @Test
+  public void testWritesTheDocumentedRecordLayout() throws IOException {
+    SessionJournal journal = new SessionJournal(directory.toFile());
+    journal.appendTurn(KENJI, new ChatMessage("user", "Hi."));
+
+    ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(directory.resolve("journal.bin")));
+    assertEquals(0x434f4332, log.getInt()); // magic
+    assertEquals(1, log.getLong()); // epoch of the first checkpoint
+    assertEquals(1 + 12 + KENJI.length() + "user".length() + "Hi.".length(), log.getInt());
+    assertEquals(2, log.get()); // a turn
+    assertEquals(KENJI, readString(log));
+    assertEquals("user", readString(log));
+    assertEquals("Hi.", readString(log));
+    assertEquals(0, log.getInt()); // no record after it
+  }
+
+  @Test
+  public void testRecoversEveryRecordAfterACrash() {
+    SessionJournal journal = new SessionJournal(directory.toFile());
+    for (int i = 0; i < 70; i++) {
+      journal.appendTurn(KENJI, new ChatMessage("user", "Question " + i));
+    }
+    // runs behind the snapshot taken at the 64th record, so that one is on disk
+    journal.exportTranscript(directory.resolve("transcript.txt")).join();
+    for (int i = 70; i < 75; i++) {
+      journal.appendTurn(KENJI, new ChatMessage("user", "Question " + i));
+    }
+    journal.appendHistory(KENJI, "user", "Question 74");
+
+    // the first journal is abandoned without being closed, as in a crash
+    for (int run = 0; run < 2; run++) {
+      SessionJournal recovered = new SessionJournal(directory.toFile());
+      List<ChatMessage> messages = recovered.getConversation(KENJI);
+      assertEquals(75, messages.size());
+      for (int i = 0; i < messages.size(); i++) {
+        assertEquals("Question " + i, messages.get(i).getContent());
+      }
+      assertEquals(1, recovered.getHistory().size());
+    }
+  }
+
+  @Test
+  public void testReusesTheLogOnceSnapshotsCoverIt() throws IOException {
+    SessionJournal journal = new SessionJournal(directory.toFile());
+    String padding = "x".repeat(10_000);
+    for (int i = 0; i < 200; i++) {
+      journal.appendTurn(KENJI, new ChatMessage("user", i + padding));
+      if (i % 64 == 63) {
+        // lets the snapshot taken at this record run before more are appended
+        journal.exportTranscript(directory.resolve("transcript.txt")).join();
+      }
+    }
+
+    // two megabytes were recorded, but the log was emptied instead of being grown
+    assertEquals(1 << 20, Files.size(directory.resolve("journal.bin")));
+    List<ChatMessage> messages = new SessionJournal(directory.toFile()).getConversation(KENJI);
+    assertEquals(200, messages.size());
+    assertEquals(199 + padding, messages.get(199).getContent());
+  }
+
+  @Test
+  public void testKeepsTheRecordsBeforeACorruptOne() throws IOException {
+    SessionJournal journal = new SessionJournal(directory.toFile());
+    journal.appendTurn(KENJI, new ChatMessage("user", "Hello."));
+    journal.appendTurn(KENJI, new ChatMessage("assistant", "Hi."));
+
+    Path path = directory.resolve("journal.bin");
+    ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+    int end = 12;
+    while (log.getInt(end) > 0) {
+      end += 4 + log.getInt(end);
+    }
+    // a record whose first string claims more bytes than the record holds
+    ByteBuffer corrupt = ByteBuffer.allocate(9).putInt(20).put((byte) 2).putInt(999).flip();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(corrupt, end);
+    }
+
+    List<ChatMessage> messages = new SessionJournal(directory.toFile()).getConversation(KENJI);
+    assertEquals(2, messages.size());
+    assertEquals("Hi.", messages.get(1).getContent());
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,105 @@
+package nz.ac.auckland.se206.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javafx.scene.Parent;
+import javafx.scene.layout.Pane;
+import nz.ac.auckland.se206.assets.ImageAssets;
+import org.junit.jupiter.api.Test;
+
+public class SceneCacheTest {
+
+  /** A scene whose view state is a fixed number of bytes. */
+  private static class FakeScene implements Dehydratable {
+    private final Parent root = new Pane();
+    private final long bytes;
+    private boolean hydrated = true;
+
+    private FakeScene(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public long estimateRetainedBytes() {
+      return hydrated ? bytes : 0;
+    }
+
+    @Override
+    public void dehydrate() {
+      hydrated = false;
+    }
+
+    @Override
+    public void rehydrate() {
+      hydrated = true;
+    }
+  }
+
+  @Test
+  public void testDehydratesTheLeastRecentlyShownScenesOverTheBudget() {
+    SceneCache cache = new SceneCache(250);
+    FakeScene first = register(cache, 100);
+    FakeScene second = register(cache, 100);
+    FakeScene third = register(cache, 100);
+    cache.show(first.root);
+    cache.show(second.root);
+    cache.show(third.root);
+    assertTrue(first.hydrated && second.hydrated && third.hydrated);
+
+    FakeScene fourth = register(cache, 100);
+    cache.show(fourth.root);
+    assertFalse(first.hydrated);
+    assertTrue(second.hydrated && third.hydrated && fourth.hydrated);
+  }
+
+  @Test
+  public void testRehydratesASceneAsItIsShownAgain() {
+    SceneCache cache = new SceneCache(150);
+    FakeScene first = register(cache, 100);
+    FakeScene second = register(cache, 100);
+    FakeScene third = register(cache, 100);
+    cache.show(first.root);
+    cache.show(second.root);
+    cache.show(third.root);
+    assertFalse(first.hydrated);
+
+    cache.show(first.root);
+    assertTrue(first.hydrated);
+    assertFalse(second.hydrated); // now the least recently shown
+    assertTrue(third.hydrated);
+  }
+
+  @Test
+  public void testNeverDehydratesTheSceneOnScreen() {
+    SceneCache cache = new SceneCache(0);
+    FakeScene shown = register(cache, 100);
+    FakeScene hidden = register(cache, 100);
+    cache.show(shown.root);
+
+    assertTrue(shown.hydrated);
+    assertFalse(hidden.hydrated);
+  }
+
+  @Test
+  public void testDefaultBudgetKeepsOnlyTheLastRoomBesidesTheOneOnScreen() {
+    SceneCache cache = new SceneCache();
+    FakeScene[] rooms = new FakeScene[4];
+    for (int i = 0; i < rooms.length; i++) {
+      rooms[i] = register(cache, ImageAssets.estimateRoomBytes() + 20_000); // with some chat
+    }
+    for (FakeScene room : rooms) {
+      cache.show(room.root);
+    }
+    assertFalse(rooms[0].hydrated);
+    assertFalse(rooms[1].hydrated);
+    assertTrue(rooms[2].hydrated); // the room the player just left
+    assertTrue(rooms[3].hydrated); // on screen
+  }
+
+  private static FakeScene register(SceneCache cache, long bytes) {
+    FakeScene scene = new FakeScene(bytes);
+    cache.register(scene.root, scene);
+    return scene;
+  }
+}
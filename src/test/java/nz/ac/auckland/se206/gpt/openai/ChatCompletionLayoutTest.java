@@ -0,0 +1,47 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Layout;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+public class ChatCompletionLayoutTest {
+
+  @Test
+  public void testStablePrefixSendsContextLast() {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(null)
+            .addMessage("system", "prompt")
+            .addMessage("user", "Hello.")
+            .setVolatileContext("system", "context 1");
+    assertEquals(List.of("prompt", "Hello.", "context 1"), contents(request.getLayoutMessages()));
+
+    request.addMessage("assistant", "Hi.").addMessage("user", "Why?");
+    request.setVolatileContext("system", "context 2");
+    // the dialogue of the earlier turn is sent again unchanged, as a cacheable prefix
+    assertEquals(
+        List.of("prompt", "Hello.", "Hi.", "Why?", "context 2"),
+        contents(request.getLayoutMessages()));
+  }
+
+  @Test
+  public void testInterleavedSendsContextBeforeTheNewestMessage() {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(null)
+            .setLayout(Layout.INTERLEAVED)
+            .addMessage("system", "prompt")
+            .addMessage("user", "Hello.")
+            .setVolatileContext("system", "context");
+    assertEquals(List.of("prompt", "context", "Hello."), contents(request.getLayoutMessages()));
+
+    request.clearVolatileContext();
+    assertEquals(List.of("prompt", "Hello."), contents(request.getLayoutMessages()));
+  }
+
+  private static List<String> contents(List<ChatMessage> messages) {
+    return messages.stream().map(ChatMessage::getContent).toList();
+  }
+}
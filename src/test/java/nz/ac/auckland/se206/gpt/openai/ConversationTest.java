@@ -0,0 +1,37 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
+import org.junit.jupiter.api.Test;
+
+public class ConversationTest {
+
+  @Test
+  public void testForksShareTheirPrefix() {
+    Conversation base = Conversation.EMPTY.append("system", "prompt").append("user", "Hello.");
+    Conversation first = base.append("assistant", "Hi.");
+    Conversation second = base.append("assistant", "Go away.");
+
+    assertEquals(2, base.size());
+    assertEquals("Hi.", first.toList().get(2).getContent());
+    assertEquals("Go away.", second.toList().get(2).getContent());
+    assertTrue(first.extendsFrom(base));
+    assertFalse(first.extendsFrom(second));
+  }
+
+  @Test
+  public void testCommitOnlyAppliesToTheExpectedSnapshot() {
+    ChatCompletionRequest request = new ChatCompletionRequest(null).addMessage("system", "prompt");
+    Conversation base = request.getConversation();
+    Conversation turn = base.append("user", "Hello.").append("assistant", "Hi.");
+
+    assertTrue(request.commit(base, turn));
+    assertEquals(3, request.getMessages().size());
+    assertFalse(request.commit(base, base.append("user", "Too late.")));
+    assertEquals(3, request.getMessages().size());
+  }
+}
@@ -0,0 +1,56 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.chat.openai.ModelRouter;
+import nz.ac.auckland.apiproxy.chat.openai.ModelRouter.Route;
+import org.junit.jupiter.api.Test;
+
+public class ModelRouterTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final ModelRouter router = new ModelRouter(now::get, 30_000);
+
+  @Test
+  public void testKeepsThePreferredModelWhileItFitsTheBudget() {
+    Route route = router.route(Model.GPT_4_1_MINI, 500, 120);
+
+    assertEquals(Model.GPT_4_1_MINI, route.getModel());
+    assertEquals(240, route.getMaxTokens());
+  }
+
+  @Test
+  public void testFallsBackToTheFastestModelWhenThePreferredOneIsSlow() {
+    recordSlowSamples(Model.GPT_4_1_MINI);
+
+    assertEquals(Model.GPT_4_1_NANO, router.route(Model.GPT_4_1_MINI, 500, 120).getModel());
+  }
+
+  @Test
+  public void testDegradesTokensWhenNothingFitsThePhase() {
+    router.setRemainingTime(() -> 4, 0.25); // a one-second budget
+    Route route = router.route(Model.GPT_4_1_MINI, 500, 120);
+
+    assertEquals(Model.GPT_4_1_NANO, route.getModel());
+    assertEquals(160, route.getMaxTokens()); // 240 tokens scaled by 1000 / 1500 ms
+  }
+
+  @Test
+  public void testTriesThePreferredModelAgainOnceItsSlowSamplesExpire() {
+    recordSlowSamples(Model.GPT_4_1_MINI);
+    now.addAndGet(29_000);
+    assertEquals(Model.GPT_4_1_NANO, router.route(Model.GPT_4_1_MINI, 500, 120).getModel());
+
+    now.addAndGet(2_000);
+    assertEquals(Model.GPT_4_1_MINI, router.route(Model.GPT_4_1_MINI, 500, 120).getModel());
+    assertEquals(3000, router.estimateP95Millis(Model.GPT_4_1_MINI)); // back to its prior
+  }
+
+  private void recordSlowSamples(Model model) {
+    for (int i = 0; i < 3; i++) {
+      router.record(model, 9000);
+    }
+  }
+}
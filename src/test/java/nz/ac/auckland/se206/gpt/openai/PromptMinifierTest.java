@@ -0,0 +1,49 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.chat.openai.PromptMinifier;
+import org.junit.jupiter.api.Test;
+
+public class PromptMinifierTest {
+
+  @Test
+  public void testMinifiesOnlySystemMessages() {
+    PromptMinifier minifier =
+        new PromptMinifier().addAbbreviation("[StreetAssist Unit ", "[SA-42 ");
+    PromptMinifier.Report report =
+        minifier.minify(
+            List.of(
+                new ChatMessage("system", "You are a witness.   Keep answers short and clear."),
+                new ChatMessage("user", "Hello   there."),
+                new ChatMessage(
+                    "system",
+                    "\n\n[StreetAssist Unit assistant]  Hi.\nKeep answers short and clear.")));
+    List<ChatMessage> minified = report.getMessages();
+
+    assertEquals("You are a witness. Keep answers short and clear.", minified.get(0).getContent());
+    assertEquals("Hello   there.", minified.get(1).getContent());
+    assertEquals("[SA-42 assistant] Hi.", minified.get(2).getContent());
+    assertTrue(report.getTokensSaved() > 0);
+  }
+
+  @Test
+  public void testDropsOnlyTheRepeatedFragmentsOfALine() {
+    List<ChatMessage> minified =
+        new PromptMinifier()
+            .minify(
+                List.of(
+                    new ChatMessage("system", "The car accelerated without warning. It braked."),
+                    new ChatMessage(
+                        "system", "The car accelerated without warning. It braked. Kenji ran."),
+                    new ChatMessage("system", "Yes. It braked.")))
+            .getMessages();
+
+    assertEquals("Kenji ran.", minified.get(1).getContent());
+    // short sentences repeated on their own are kept
+    assertEquals("Yes. It braked.", minified.get(2).getContent());
+  }
+}
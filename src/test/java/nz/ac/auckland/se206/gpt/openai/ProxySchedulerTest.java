@@ -0,0 +1,133 @@
+package nz.ac.auckland.se206.gpt.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Permit;
+import nz.ac.auckland.apiproxy.service.ProxyScheduler.Priority;
+import org.junit.jupiter.api.Test;
+
+public class ProxySchedulerTest {
+
+  private static final long AGING_MILLIS = 1500;
+
+  private final AtomicLong now = new AtomicLong();
+  private final ProxyScheduler scheduler = new ProxyScheduler(1, AGING_MILLIS, now::get);
+  private final List<String> grants = Collections.synchronizedList(new ArrayList<>());
+  private final List<Thread> callers = new ArrayList<>();
+
+  @Test
+  public void testGrantsTheMostUrgentClassFirst() throws Exception {
+    Permit running = scheduler.acquire(() -> Priority.FOREGROUND, 0, () -> false);
+    queue("prefetch", Priority.PREFETCH);
+    queue("speech", Priority.SPEECH);
+    queue("foreground", Priority.FOREGROUND);
+
+    running.close();
+    awaitCallers();
+    assertEquals(List.of("foreground", "speech", "prefetch"), grants);
+  }
+
+  @Test
+  public void testPromotesCallsThatHaveWaited() throws Exception {
+    Permit running = scheduler.acquire(() -> Priority.FOREGROUND, 0, () -> false);
+    queue("background turn", Priority.BACKGROUND_TURN);
+    now.addAndGet(AGING_MILLIS); // now level with speech, and queued first
+    queue("speech", Priority.SPEECH);
+
+    running.close();
+    awaitCallers();
+    assertEquals(List.of("background turn", "speech"), grants);
+  }
+
+  @Test
+  public void testNeverPromotesACallPastForeground() throws Exception {
+    Permit running = scheduler.acquire(() -> Priority.FOREGROUND, 0, () -> false);
+    queue("prefetch", Priority.PREFETCH);
+    queue("background", Priority.BACKGROUND);
+    now.addAndGet(20 * AGING_MILLIS);
+    queue("foreground", Priority.FOREGROUND);
+
+    running.close();
+    awaitCallers();
+    assertEquals(List.of("foreground", "prefetch", "background"), grants);
+  }
+
+  @Test
+  public void testCancelledCallLeavesTheQueue() throws Exception {
+    Permit running = scheduler.acquire(() -> Priority.FOREGROUND, 0, () -> false);
+    AtomicBoolean cancelled = new AtomicBoolean();
+    List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+    Thread caller =
+        new Thread(
+            () -> {
+              try {
+                scheduler.acquire(() -> Priority.PREFETCH, 0, cancelled::get).close();
+              } catch (ApiProxyException e) {
+                failures.add(e);
+              }
+            });
+    caller.start();
+    awaitQueued(1);
+
+    cancelled.set(true);
+    scheduler.wakeUp();
+    caller.join(5000);
+    assertEquals(1, failures.size());
+    assertEquals(0, scheduler.getQueuedCount());
+    running.close();
+    assertEquals(0, scheduler.getRunningCount());
+  }
+
+  @Test
+  public void testGivesUpAtTheDeadline() throws Exception {
+    Permit running = scheduler.acquire(() -> Priority.FOREGROUND, 0, () -> false);
+    long deadline = System.currentTimeMillis() + 100;
+
+    assertThrows(
+        ApiProxyException.class,
+        () -> scheduler.acquire(() -> Priority.FOREGROUND, deadline, () -> false));
+    assertTrue(System.currentTimeMillis() >= deadline);
+    assertEquals(0, scheduler.getQueuedCount());
+    running.close();
+  }
+
+  /** Queues a call that records its name once granted and then finishes at once. */
+  private void queue(String name, Priority priority) throws InterruptedException {
+    int queued = scheduler.getQueuedCount();
+    Thread caller =
+        new Thread(
+            () -> {
+              try (Permit permit = scheduler.acquire(() -> priority, 0, () -> false)) {
+                grants.add(name);
+              } catch (ApiProxyException e) {
+                grants.add(name + " failed");
+              }
+            });
+    caller.start();
+    callers.add(caller);
+    awaitQueued(queued + 1);
+  }
+
+  private void awaitQueued(int count) throws InterruptedException {
+    long giveUp = System.currentTimeMillis() + 5000;
+    while (scheduler.getQueuedCount() < count && System.currentTimeMillis() < giveUp) {
+      Thread.sleep(5);
+    }
+    assertEquals(count, scheduler.getQueuedCount());
+  }
+
+  private void awaitCallers() throws InterruptedException {
+    for (Thread caller : callers) {
+      caller.join(5000);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package nz.ac.auckland.se206.loadtest;
+
+import java.io.IOException;
+
+/**
+ * The {@link LocalProxy} shared by every test that runs chat turns. The proxy URL is read once,
+ * when the proxy classes are first used, so all such tests must talk to the same stand-in.
+ */
+public class StandInProxy {
+
+  /** How long the stand-in takes to answer each call. */
+  public static final long LATENCY_MILLIS = 1500;
+
+  private static LocalProxy proxy;
+
+  /** Starts the stand-in and points the proxy URL at it, unless that has been done already. */
+  public static synchronized void start() {
+    if (proxy != null) {
+      return;
+    }
+    try {
+      proxy = new LocalProxy(LATENCY_MILLIS);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot start the stand-in proxy", e);
+    }
+    System.setProperty("proxy.url", proxy.getUrl());
+  }
+}
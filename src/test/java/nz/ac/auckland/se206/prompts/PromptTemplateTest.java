@@ -0,0 +1,30 @@
+package nz.ac.auckland.se206.prompts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class PromptTemplateTest {
+
+  @Test
+  public void testRendersPlaceholders() {
+    PromptTemplate template = PromptTemplate.compile("You are {role}. Say {greeting}!");
+    String prompt = template.render(Map.of("role", "a judge", "greeting", "order"));
+    assertEquals("You are a judge. Say order!", prompt);
+  }
+
+  @Test
+  public void testKeepsUnknownPlaceholdersAndLiteralBraces() {
+    PromptTemplate template = PromptTemplate.compile("{missing} {not a placeholder} {} {role}");
+    String prompt = template.render(Map.of("role", "witness"));
+    assertEquals("{missing} {not a placeholder} {} witness", prompt);
+  }
+
+  @Test
+  public void testLoadsBundledPromptFromClassPath() {
+    String prompt = PromptEngineering.getPrompt("context.txt", Map.of("role", "ROLE"));
+    assertTrue(prompt.endsWith("Your role in this is ROLE"));
+  }
+}
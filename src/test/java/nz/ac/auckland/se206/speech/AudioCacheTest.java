@@ -0,0 +1,44 @@
+package nz.ac.auckland.se206.speech;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+public class AudioCacheTest {
+
+  private static final byte[] AUDIO = {(byte) 0xff, (byte) 0xfb, 0x10, 0x00};
+
+  @Test
+  public void testAcceptsAudio() throws ClientProtocolException {
+    HttpResponse response = response(200, ContentType.create("audio/mpeg"));
+
+    assertEquals(response.getEntity(), AudioCache.checkAudio(response));
+  }
+
+  @Test
+  public void testRefusesAnErrorStatus() {
+    HttpResponse response = response(403, ContentType.create("audio/mpeg"));
+
+    assertThrows(ClientProtocolException.class, () -> AudioCache.checkAudio(response));
+  }
+
+  @Test
+  public void testRefusesAPageServedInsteadOfAudio() {
+    HttpResponse response = response(200, ContentType.TEXT_HTML);
+
+    assertThrows(ClientProtocolException.class, () -> AudioCache.checkAudio(response));
+  }
+
+  private static HttpResponse response(int status, ContentType type) {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+    response.setEntity(new ByteArrayEntity(AUDIO, type));
+    return response;
+  }
+}
@@ -0,0 +1,83 @@
+package nz.ac.auckland.se206.speech;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class CircuitBreakerTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final CircuitBreaker breaker = new CircuitBreaker(3, 30_000, now::get);
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.recordSuccess(); // resets the run
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+
+    breaker.recordFailure();
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void testLetsOneTrialThroughAfterTheCoolDown() {
+    open();
+    now.addAndGet(29_999);
+    assertFalse(breaker.allowRequest());
+
+    now.addAndGet(1);
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.allowRequest()); // the trial is still in flight
+  }
+
+  @Test
+  public void testClosesWhenTheTrialSucceeds() {
+    open();
+    now.addAndGet(30_000);
+    assertTrue(breaker.allowRequest());
+
+    breaker.recordSuccess();
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void testOpensAgainForAFullCoolDownWhenTheTrialFails() {
+    open();
+    now.addAndGet(30_000);
+    assertTrue(breaker.allowRequest());
+
+    breaker.recordFailure();
+    assertTrue(breaker.isOpen());
+    now.addAndGet(29_999);
+    assertFalse(breaker.allowRequest());
+    now.addAndGet(1);
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void testLetsAnotherTrialThroughWhenOneIsAbandoned() {
+    open();
+    now.addAndGet(30_000);
+    assertTrue(breaker.allowRequest());
+
+    breaker.recordAbandoned();
+    assertTrue(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.allowRequest());
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      breaker.recordFailure();
+    }
+  }
+}